@@ -1,20 +1,33 @@
 package com.azziedevelopment.ai2mqtt.config;
 
 import jakarta.jms.ConnectionFactory;
+import jakarta.jms.Session;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
 import org.springframework.jms.config.JmsListenerContainerFactory;
 
 
 /**
  * Ensures the necessary infrastructure beans for ActiveMQ are present
- * when ActiveMQ is the selected messaging provider.
+ * when ActiveMQ is one of the selected messaging providers.
+ * <p>
+ * Prompts arrive on a topic by default (every subscriber sees every prompt). With
+ * {@code activemq.prompts.destination-type=queue} they arrive on a queue instead, where the consumers
+ * of all replicas compete and each prompt is handled once. How far ahead each consumer fetches is set
+ * by {@code activemq.prefetch} (see {@code ActiveMQAdapter}).
+ * <p>
+ * With ack mode {@code client} or {@code transacted} each consumer holds its message until the prompt is
+ * processed, so it works on one prompt at a time. A topic has a single consumer, which would make every JMS
+ * prompt wait for the previous one; that combination is refused at startup.
  */
+@Slf4j
 @Configuration
-@ConditionalOnProperty(name = "messaging.type", havingValue = "activemq")
+@ConditionalOnTransport("activemq")
 public class ActiveMQConfig {
 
 	/**
@@ -22,16 +35,47 @@ public class ActiveMQConfig {
 	 */
 	@Bean
 	public JmsListenerContainerFactory<?> jmsListenerContainerFactory(
-		@Qualifier("jmsConnectionFactory") ConnectionFactory connectionFactory) {
+		@Qualifier("jmsConnectionFactory") ConnectionFactory connectionFactory,
+		@Value("${activemq.prompts.destination-type:topic}") String destinationType,
+		@Value("${activemq.concurrency:3-10}") String concurrency,
+		@Value("${activemq.ack-mode:auto}") String ackMode) {
 		DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
 		factory.setConnectionFactory(connectionFactory);
 
-		// This is important for processing topic messages concurrently
-		factory.setPubSubDomain(true);
+		boolean topic = !"queue".equalsIgnoreCase(destinationType);
+		boolean ackAfterProcessing = "client".equalsIgnoreCase(ackMode) || "transacted".equalsIgnoreCase(ackMode);
+		if (topic && ackAfterProcessing) {
+			throw new IllegalStateException("activemq.ack-mode=" + ackMode + " holds each consumer until its prompt is"
+				+ " processed, and a topic has only one consumer, so prompts would run one at a time."
+				+ " Use activemq.prompts.destination-type=queue or ack mode auto/dups-ok.");
+		}
+		factory.setPubSubDomain(topic);
 
-		// Optional: Ensure messages are processed in parallel (better throughput)
-		factory.setConcurrency("3-10");
+		// On a topic every consumer gets its own copy of each prompt, so more than one would
+		// answer it several times. On a queue the container adds consumers (up to the upper bound)
+		// while messages keep arriving and retires idle ones again.
+		factory.setConcurrency(topic ? "1" : concurrency);
+		factory.setTaskExecutor(virtualThreadExecutor());
 
+		switch (ackMode.toLowerCase()) {
+			// Each message acknowledged on its own after its prompt is processed (see ActiveMQAdapter);
+			// a crash means redelivery
+			case "client" -> factory.setSessionAcknowledgeMode(Session.CLIENT_ACKNOWLEDGE);
+			case "transacted" -> factory.setSessionTransacted(true);
+			// The broker client acknowledges lazily in batches; cheapest, but may redeliver after a crash
+			case "dups-ok" -> factory.setSessionAcknowledgeMode(Session.DUPS_OK_ACKNOWLEDGE);
+			default -> factory.setSessionAcknowledgeMode(Session.AUTO_ACKNOWLEDGE);
+		}
+
+		log.info("ActiveMQ prompts: {} (consumers {}, ack mode {})",
+			topic ? "topic" : "queue", topic ? "1" : concurrency, ackMode);
 		return factory;
 	}
+
+	// Consumers may block until their prompt is processed, so they shouldn't tie up platform threads
+	private static SimpleAsyncTaskExecutor virtualThreadExecutor() {
+		SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("jms-consumer-");
+		executor.setVirtualThreads(true);
+		return executor;
+	}
 }
@@ -0,0 +1,25 @@
+package com.azziedevelopment.ai2mqtt.config;
+
+import org.springframework.context.annotation.Conditional;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Matches when the given transport is one of those listed in {@code messaging.type}
+ * (e.g. {@code messaging.type=mqtt,activemq} enables both the MQTT and the ActiveMQ adapter).
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Conditional(OnTransportCondition.class)
+public @interface ConditionalOnTransport {
+
+	/**
+	 * Transport name: {@code mqtt}, {@code mqtt5} or {@code activemq}.
+	 */
+	String value();
+}
@@ -0,0 +1,20 @@
+package com.azziedevelopment.ai2mqtt.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/**
+ * Per-transport limits of the prompt dispatcher ({@code dispatch.*}); its scalar settings are read with {@code @Value}.
+ *
+ * @param transportConcurrency Max prompts of one transport in processing at once, e.g.
+ *                             {@code dispatch.transport-concurrency.activemq=2}. They still count against
+ *                             {@code dispatch.max-concurrency}; unlisted transports may use the whole pool.
+ */
+@ConfigurationProperties(prefix = "dispatch")
+public record DispatchProperties(Map<String, Integer> transportConcurrency) {
+
+	public DispatchProperties {
+		transportConcurrency = (transportConcurrency != null) ? transportConcurrency : Map.of();
+	}
+}
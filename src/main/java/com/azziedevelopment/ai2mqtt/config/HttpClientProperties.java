@@ -0,0 +1,46 @@
+package com.azziedevelopment.ai2mqtt.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Named HTTP client profiles for AI backends ({@code ai.http.profiles.<name>.*}).
+ * A provider picks its profile by name, e.g. {@code openai.http-profile=local}.
+ */
+@ConfigurationProperties(prefix = "ai.http")
+public record HttpClientProperties(Map<String, Profile> profiles) {
+
+	// Same behaviour as before profiles existed: HTTP/1.1, 10s connect, up to 5 minutes per answer
+	public static final Profile DEFAULT = new Profile(HttpClient.Version.HTTP_1_1, 8,
+		Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofMillis(100), Duration.ofMinutes(5));
+
+	public HttpClientProperties {
+		profiles = (profiles != null) ? profiles : Map.of();
+	}
+
+	public Profile profile(String name) {
+		return profiles.getOrDefault(name, DEFAULT);
+	}
+
+	/**
+	 * @param version             HTTP_1_1 for vLLM/LocalAI (many Python servers mishandle the HTTP/2 upgrade),
+	 *                            HTTP_2 for providers that multiplex (OpenAI, Gemini)
+	 * @param maxConnections      Max concurrent requests per host; with HTTP/1.1 this is the connection count
+	 * @param readTimeoutBase     Read timeout before accounting for the answer length
+	 * @param readTimeoutPerToken Extra read timeout per requested max_tokens
+	 * @param maxReadTimeout      Upper bound for the derived read timeout
+	 */
+	public record Profile(
+		@DefaultValue("HTTP_1_1") HttpClient.Version version,
+		@DefaultValue("8") int maxConnections,
+		@DefaultValue("10s") Duration connectTimeout,
+		@DefaultValue("30s") Duration readTimeoutBase,
+		@DefaultValue("100ms") Duration readTimeoutPerToken,
+		@DefaultValue("5m") Duration maxReadTimeout
+	) {
+	}
+}
@@ -0,0 +1,41 @@
+package com.azziedevelopment.ai2mqtt.config;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Backs {@link ConditionalOnTransport}.
+ */
+public class OnTransportCondition implements Condition {
+
+	@Override
+	public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+		Map<String, Object> attributes = metadata.getAnnotationAttributes(ConditionalOnTransport.class.getName());
+		String transport = (attributes == null) ? null : (String) attributes.get("value");
+		return transports(context.getEnvironment().getProperty("messaging.type", "")).contains(transport);
+	}
+
+	/**
+	 * Parses {@code messaging.type} into transport names, in the order listed.
+	 */
+	public static Set<String> transports(String messagingType) {
+		Set<String> transports = Arrays.stream(messagingType.split(","))
+			.map(String::trim)
+			.map(String::toLowerCase)
+			.filter(name -> !name.isEmpty())
+			.collect(Collectors.toCollection(LinkedHashSet::new));
+
+		// Both define the same MQTT beans (client factory, channels, 'mqttOutboundHandler')
+		if (transports.contains("mqtt") && transports.contains("mqtt5")) {
+			throw new IllegalStateException("messaging.type can't combine mqtt and mqtt5: " + messagingType);
+		}
+		return transports;
+	}
+}
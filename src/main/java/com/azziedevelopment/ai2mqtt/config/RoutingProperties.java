@@ -0,0 +1,93 @@
+package com.azziedevelopment.ai2mqtt.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Pool of OpenAI-compatible backends ({@code ai.routing.*}).
+ * When no backends are listed, the single {@code openai.*} endpoint is used as before.
+ *
+ * @param failureThreshold    Consecutive backend failures (5xx, 429, timeouts) before its circuit opens
+ * @param openDuration        How long an open circuit rejects traffic before one trial request is allowed
+ * @param healthCheckInterval How often every backend is probed; 0 disables health checks
+ * @param healthCheckPath     Probed with GET; any response below 500 counts as healthy
+ * @param limiter             Adaptive per-backend concurrency limit
+ * @param retry               Retries after every backend failed with a retryable error (5xx, 408, 429, timeouts)
+ */
+@ConfigurationProperties(prefix = "ai.routing")
+public record RoutingProperties(
+	@DefaultValue("weighted-round-robin") Strategy strategy,
+	@DefaultValue("5") int failureThreshold,
+	@DefaultValue("30s") Duration openDuration,
+	@DefaultValue("30s") Duration healthCheckInterval,
+	@DefaultValue("/models") String healthCheckPath,
+	List<BackendDefinition> backends,
+	@DefaultValue Limiter limiter,
+	@DefaultValue Retry retry
+) {
+
+	public RoutingProperties {
+		backends = (backends != null) ? backends : List.of();
+		limiter = (limiter != null) ? limiter : new Limiter(false, 4, 1, 64, 1.5, 0.9, Duration.ofSeconds(60));
+		retry = (retry != null) ? retry : new Retry(1, Duration.ZERO, Duration.ZERO);
+	}
+
+	public enum Strategy {
+		WEIGHTED_ROUND_ROBIN,
+		LEAST_OUTSTANDING
+	}
+
+	/**
+	 * @param enabled      Off: every backend takes as many requests as the dispatcher sends
+	 * @param initialLimit Concurrent requests per backend before anything has been measured
+	 * @param tolerance    How far latency may rise above the no-load latency before the limit shrinks (1.5 = 50%)
+	 * @param backoffRatio Factor the limit is cut by on a 429, 5xx or timeout
+	 * @param maxWait      How long a prompt waits for a backend below its limit before it fails
+	 */
+	public record Limiter(
+		@DefaultValue("true") boolean enabled,
+		@DefaultValue("4") int initialLimit,
+		@DefaultValue("1") int minLimit,
+		@DefaultValue("64") int maxLimit,
+		@DefaultValue("1.5") double tolerance,
+		@DefaultValue("0.9") double backoffRatio,
+		@DefaultValue("60s") Duration maxWait
+	) {
+	}
+
+	/**
+	 * Delays follow "decorrelated jitter": each one is random between {@code baseDelay} and three times the
+	 * previous one, capped at {@code maxDelay}, so callers that failed together don't retry together.
+	 * A {@code Retry-After} from the provider is waited out in full.
+	 *
+	 * @param maxAttempts Attempts per prompt including the first; 1 disables retries
+	 */
+	public record Retry(
+		@DefaultValue("3") int maxAttempts,
+		@DefaultValue("500ms") Duration baseDelay,
+		@DefaultValue("20s") Duration maxDelay
+	) {
+	}
+
+	/**
+	 * @param apiKey            Falls back to {@code openai.api.key} when blank
+	 * @param model             Falls back to {@code openai.model} when blank
+	 * @param httpProfile       Key under {@code ai.http.profiles}
+	 * @param requestsPerMinute Provider quota kept on the client side; 0 for none
+	 * @param tokensPerMinute   Provider quota kept on the client side; 0 for none
+	 */
+	public record BackendDefinition(
+		String name,
+		String baseUrl,
+		String apiKey,
+		String model,
+		@DefaultValue("1") int weight,
+		@DefaultValue("default") String httpProfile,
+		@DefaultValue("0") int requestsPerMinute,
+		@DefaultValue("0") int tokensPerMinute
+	) {
+	}
+}
@@ -0,0 +1,75 @@
+package com.azziedevelopment.ai2mqtt.controller;
+
+import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.azziedevelopment.ai2mqtt.dto.BatchStatus;
+import com.azziedevelopment.ai2mqtt.service.batch.BatchJob;
+import com.azziedevelopment.ai2mqtt.service.batch.BatchJobs;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * JSON API for batches of prompts:
+ * <ul>
+ *   <li>{@code POST /api/batches} with an array of prompts (same fields as over MQTT) returns 202 and the job id</li>
+ *   <li>{@code GET /api/batches/{jobId}} returns the progress and the results so far</li>
+ *   <li>{@code GET /api/batches/{jobId}/events} streams a {@code result} event per answer and a final {@code done}</li>
+ * </ul>
+ */
+@RestController
+@RequestMapping("/api/batches")
+public class BatchController {
+
+	private final BatchJobs batchJobs;
+	private final Duration sseTimeout;
+
+	public BatchController(BatchJobs batchJobs,
+	                       @Value("${batch.sse-timeout:30m}") Duration sseTimeout) {
+		this.batchJobs = batchJobs;
+		this.sseTimeout = sseTimeout;
+	}
+
+	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<BatchStatus> submit(@RequestBody List<AIRequest> prompts) {
+		BatchJob job;
+		try {
+			job = batchJobs.submit(prompts);
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+		return ResponseEntity.accepted()
+			.location(URI.create("/api/batches/" + job.getId()))
+			.body(job.status());
+	}
+
+	@GetMapping("/{jobId}")
+	public BatchStatus status(@PathVariable("jobId") String jobId) {
+		return job(jobId).status();
+	}
+
+	@GetMapping(path = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter events(@PathVariable("jobId") String jobId) {
+		BatchJob job = job(jobId);
+		SseEmitter emitter = new SseEmitter(sseTimeout.toMillis());
+		job.subscribe(emitter);
+		return emitter;
+	}
+
+	private BatchJob job(String jobId) {
+		return batchJobs.find(jobId)
+			.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown batch " + jobId));
+	}
+}
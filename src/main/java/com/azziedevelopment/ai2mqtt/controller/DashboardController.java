@@ -1,40 +1,81 @@
 package com.azziedevelopment.ai2mqtt.controller;
 
-import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import com.azziedevelopment.ai2mqtt.dto.AIRequest;
 import com.azziedevelopment.ai2mqtt.model.ConversationRepository;
-import com.azziedevelopment.ai2mqtt.service.OpenAIService;
-import lombok.RequiredArgsConstructor;
+import com.azziedevelopment.ai2mqtt.model.ThreadSummary;
+import com.azziedevelopment.ai2mqtt.model.ThreadSummaryRepository;
+import com.azziedevelopment.ai2mqtt.service.dispatch.PromptDispatcher;
+import com.azziedevelopment.ai2mqtt.service.events.DashboardEvents;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.util.Comparator;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 @Controller
-@RequiredArgsConstructor
 public class DashboardController {
 
 	private final ConversationRepository repository;
-	private final OpenAIService openAIService;
+	private final ThreadSummaryRepository threadSummaries;
+	private final PromptDispatcher dispatcher;
+	private final DashboardEvents dashboardEvents;
+	private final int pageSize;
 
-	@GetMapping("/")
-	public String dashboard(Model model) {
-		List<ConversationPair> allMessages = repository.findAll();
+	public DashboardController(ConversationRepository repository,
+	                           ThreadSummaryRepository threadSummaries,
+	                           PromptDispatcher dispatcher,
+	                           DashboardEvents dashboardEvents,
+	                           @Value("${dashboard.page-size:25}") int pageSize) {
+		this.repository = repository;
+		this.threadSummaries = threadSummaries;
+		this.dispatcher = dispatcher;
+		this.dashboardEvents = dashboardEvents;
+		this.pageSize = pageSize;
+	}
 
-		Map<String, List<ConversationPair>> groupedChats = allMessages.stream()
-			.sorted(Comparator.comparing(ConversationPair::getTimestamp).reversed())
-			.collect(Collectors.groupingBy(ConversationPair::getThreadId));
+	/**
+	 * Renders one page of thread headers only. Messages are fetched per thread when it is expanded.
+	 * Paging is keyset-based: "before"/"beforeThread" are the last thread of the previous page.
+	 */
+	@GetMapping("/")
+	public String dashboard(@RequestParam(value = "before", required = false)
+	                        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
+	                        @RequestParam(value = "beforeThread", required = false) String beforeThread,
+	                        Model model) {
+		// Ask for one extra row to know whether an "Older" link is needed
+		List<ThreadSummary> threads = threadSummaries.findPage(before, beforeThread, pageSize + 1);
+		boolean hasMore = threads.size() > pageSize;
+		if (hasMore) {
+			threads = threads.subList(0, pageSize);
+		}
 
-		model.addAttribute("groupedChats", groupedChats);
+		model.addAttribute("threads", threads);
+		model.addAttribute("nextCursor", hasMore ? threads.getLast() : null);
+		model.addAttribute("firstPage", before == null);
 		return "index";
 	}
 
+	@GetMapping("/threads/{threadId}")
+	public String threadMessages(@PathVariable("threadId") String threadId, Model model) {
+		model.addAttribute("messages", repository.findByThreadIdOrderByTimestampAsc(threadId));
+		return "thread :: messages";
+	}
+
+	// Live updates for the open page (turn states and streamed chunks); see DashboardEvents
+	@GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter events() {
+		return dashboardEvents.subscribe();
+	}
+
 	// UPDATE: Added 'systemPrompt' parameter
 	@PostMapping("/send")
 	public String sendPrompt(@RequestParam("prompt") String prompt,
@@ -45,10 +86,9 @@ public class DashboardController {
 			? UUID.randomUUID().toString()
 			: threadId;
 
-		String correlationId = UUID.randomUUID().toString();
-
-		// Pass the systemPrompt (can be null/empty, service handles fallback)
-		openAIService.processPrompt(correlationId, effectiveThreadId, prompt, systemPrompt);
+		// Queued like any other prompt, so the redirect doesn't wait for the answer.
+		// The systemPrompt can be null/empty, the service handles the fallback.
+		dispatcher.submit(new AIRequest(null, effectiveThreadId, prompt, systemPrompt, null, null, null));
 
 		return "redirect:/";
 	}
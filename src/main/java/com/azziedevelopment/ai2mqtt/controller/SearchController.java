@@ -0,0 +1,60 @@
+package com.azziedevelopment.ai2mqtt.controller;
+
+import com.azziedevelopment.ai2mqtt.dto.SearchPage;
+import com.azziedevelopment.ai2mqtt.service.search.ConversationIndex;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * {@code GET /api/search?q=...} over the conversation history, with optional {@code status}, {@code thread},
+ * {@code from}/{@code to} (ISO date-times) filters and {@code sort=newest}. Highlighted fragments are HTML.
+ */
+@RestController
+public class SearchController {
+
+	// Lucene collects every hit up to the requested page, so deep pages are capped
+	private static final int MAX_DEPTH = 10_000;
+
+	private final ConversationIndex conversationIndex;
+	private final int maxPageSize;
+
+	public SearchController(ConversationIndex conversationIndex,
+	                        @Value("${search.max-page-size:100}") int maxPageSize) {
+		this.conversationIndex = conversationIndex;
+		this.maxPageSize = maxPageSize;
+	}
+
+	@GetMapping("/api/search")
+	public SearchPage search(@RequestParam("q") String query,
+	                         @RequestParam(value = "status", required = false) String status,
+	                         @RequestParam(value = "thread", required = false) String threadId,
+	                         @RequestParam(value = "from", required = false)
+	                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+	                         @RequestParam(value = "to", required = false)
+	                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+	                         @RequestParam(value = "sort", defaultValue = "relevance") String sort,
+	                         @RequestParam(value = "page", defaultValue = "0") int page,
+	                         @RequestParam(value = "size", defaultValue = "20") int size) throws IOException {
+		if (!conversationIndex.isEnabled()) {
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Search is disabled");
+		}
+		if (query.isBlank() || page < 0 || size < 1 || size > maxPageSize || (long) (page + 1) * size > MAX_DEPTH) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+				"Needs a query, a page size of 1-" + maxPageSize + " and at most " + MAX_DEPTH + " results deep");
+		}
+		try {
+			return conversationIndex.search(query, status, threadId, from, to, "newest".equalsIgnoreCase(sort), page, size);
+		} catch (ParseException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid query: " + e.getMessage());
+		}
+	}
+}
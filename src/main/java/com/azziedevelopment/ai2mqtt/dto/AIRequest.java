@@ -1,11 +1,52 @@
 package com.azziedevelopment.ai2mqtt.dto;
 
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
 public record AIRequest(
 	String id,            // Unique Message ID
 	String threadId,      // Conversation Context ID
 	String text,          // The Prompt
 	String systemPrompt,  // Optional System Prompt Override
 	Integer maxTokens,    // Optional override
-	Double temperature    // Optional override
+	Double temperature,   // Optional override
+	Integer priority      // Optional, 0 (bulk) - 9 (interactive); higher runs first
 ) {
+
+	/**
+	 * Longest id or threadId the conversation and outbox tables hold.
+	 */
+	public static final int MAX_ID_LENGTH = 255;
+
+	/**
+	 * Replaces an id or threadId longer than {@link #MAX_ID_LENGTH} with a UUID derived from it, so a redelivery
+	 * maps to the same one. Adapters that know the original (JMS) still answer with it.
+	 */
+	public AIRequest withStorableIds() {
+		String storableId = storable(id);
+		String storableThreadId = storable(threadId);
+		if (storableId == id && storableThreadId == threadId) {
+			return this;
+		}
+		return new AIRequest(storableId, storableThreadId, text, systemPrompt, maxTokens, temperature, priority);
+	}
+
+	public AIRequest withId(String newId) {
+		return new AIRequest(newId, threadId, text, systemPrompt, maxTokens, temperature, priority);
+	}
+
+	public AIRequest withThreadId(String newThreadId) {
+		return new AIRequest(id, newThreadId, text, systemPrompt, maxTokens, temperature, priority);
+	}
+
+	public AIRequest withPriority(Integer newPriority) {
+		return new AIRequest(id, threadId, text, systemPrompt, maxTokens, temperature, newPriority);
+	}
+
+	private static String storable(String value) {
+		if (value == null || value.length() <= MAX_ID_LENGTH) {
+			return value;
+		}
+		return UUID.nameUUIDFromBytes(value.getBytes(StandardCharsets.UTF_8)).toString();
+	}
 }
@@ -0,0 +1,9 @@
+package com.azziedevelopment.ai2mqtt.dto;
+
+public record BatchResult(
+	String id,            // Prompt ID (as submitted, or assigned)
+	String threadId,
+	String status,        // COMPLETED or FAILED
+	String response       // The answer, or the error for FAILED
+) {
+}
@@ -0,0 +1,16 @@
+package com.azziedevelopment.ai2mqtt.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public record BatchStatus(
+	String jobId,
+	String state,                 // RUNNING or DONE
+	int total,
+	int completed,
+	int failed,
+	LocalDateTime createdAt,
+	LocalDateTime finishedAt,     // Null while running
+	List<BatchResult> results     // In completion order
+) {
+}
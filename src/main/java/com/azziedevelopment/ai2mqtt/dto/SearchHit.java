@@ -0,0 +1,14 @@
+package com.azziedevelopment.ai2mqtt.dto;
+
+import java.time.LocalDateTime;
+
+public record SearchHit(
+	String id,
+	String threadId,
+	String status,
+	LocalDateTime timestamp,
+	Float score,              // Null when sorted by time
+	String prompt,            // HTML-escaped fragments, matches wrapped in <mark>
+	String response
+) {
+}
@@ -0,0 +1,12 @@
+package com.azziedevelopment.ai2mqtt.dto;
+
+import java.util.List;
+
+public record SearchPage(
+	String query,
+	long total,               // All matches, not just this page
+	int page,
+	int size,
+	List<SearchHit> hits
+) {
+}
@@ -0,0 +1,73 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The {@code archive_index} table, read with plain JDBC like {@link ThreadSummaryRepository}.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ArchiveIndexRepository {
+
+	private static final RowMapper<ArchivedThread> ROW = (rs, row) -> new ArchivedThread(
+		rs.getString("thread_id"),
+		rs.getString("segment"),
+		rs.getLong("block_offset"),
+		rs.getInt("block_length"),
+		rs.getInt("turns"),
+		rs.getObject("last_timestamp", LocalDateTime.class));
+
+	private final JdbcTemplate jdbcTemplate;
+
+	public Optional<ArchivedThread> find(String threadId) {
+		return jdbcTemplate.query("SELECT * FROM archive_index WHERE thread_id = ?", ROW, threadId)
+			.stream().findFirst();
+	}
+
+	/**
+	 * Live blocks of a segment, in file order.
+	 */
+	public List<ArchivedThread> findBySegment(String segment) {
+		return jdbcTemplate.query("SELECT * FROM archive_index WHERE segment = ? ORDER BY block_offset", ROW, segment);
+	}
+
+	public long liveBytes(String segment) {
+		Long bytes = jdbcTemplate.queryForObject(
+			"SELECT COALESCE(SUM(block_length), 0) FROM archive_index WHERE segment = ?", Long.class, segment);
+		return (bytes != null) ? bytes : 0;
+	}
+
+	public void save(ArchivedThread thread) {
+		jdbcTemplate.update("""
+				MERGE INTO archive_index (thread_id, segment, block_offset, block_length, turns, last_timestamp, archived_at)
+				KEY (thread_id) VALUES (?, ?, ?, ?, ?, ?, ?)
+				""",
+			thread.threadId(), thread.segment(), thread.offset(), thread.length(), thread.turns(),
+			thread.lastTimestamp(), LocalDateTime.now());
+	}
+
+	public void moveBlock(String threadId, String segment, long offset) {
+		jdbcTemplate.update("UPDATE archive_index SET segment = ?, block_offset = ? WHERE thread_id = ?",
+			segment, offset, threadId);
+	}
+
+	public void delete(String threadId) {
+		jdbcTemplate.update("DELETE FROM archive_index WHERE thread_id = ?", threadId);
+	}
+
+	public int deleteSegment(String segment) {
+		return jdbcTemplate.update("DELETE FROM archive_index WHERE segment = ?", segment);
+	}
+
+	public long count() {
+		Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM archive_index", Long.class);
+		return (count != null) ? count : 0;
+	}
+}
@@ -0,0 +1,16 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Index entry of an archived thread: the block holding its turns inside a segment file.
+ */
+public record ArchivedThread(
+	String threadId,
+	String segment,
+	long offset,
+	int length,
+	int turns,
+	LocalDateTime lastTimestamp
+) {
+}
@@ -9,18 +9,23 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "conversations")
+@Table(name = "conversations", indexes = {
+	// Thread history (context loads, dashboard expand) and thread summaries
+	@Index(name = "idx_conversations_thread_ts", columnList = "threadId, timestamp"),
+	// Newest-first listings
+	@Index(name = "idx_conversations_ts", columnList = "timestamp")
+})
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class ConversationPair {
 
 	@Id
-	@Column(length = 36)
+	@Column(length = 255)
 	private String id; // The Message ID (UUID)
 
-	@Column(length = 36, nullable = false)
+	@Column(length = 255, nullable = false)
 	private String threadId; // The Conversation Context ID (for chaining)
 
 	@Lob // Allows storing large text blocks
@@ -38,4 +43,7 @@ public class ConversationPair {
 	// Limits used for this specific run (for auditing/debugging)
 	private Integer maxTokens;
 	private Double temperature;
+
+	// Answered from the response cache instead of the AI backend
+	private Boolean cached;
 }
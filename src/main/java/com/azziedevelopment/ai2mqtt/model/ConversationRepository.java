@@ -1,5 +1,7 @@
 package com.azziedevelopment.ai2mqtt.model;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -14,6 +16,12 @@ public interface ConversationRepository extends JpaRepository<ConversationPair,
 	 */
 	List<ConversationPair> findByThreadIdOrderByTimestampAsc(String threadId);
 
-	// Used by the Dashboard to show newest chats first
-	List<ConversationPair> findAllByOrderByTimestampDesc();
-}
\ No newline at end of file
+	/**
+	 * Same as above, restricted to one status. The context cache only replays COMPLETED turns,
+	 * so failed attempts ("Error: ...") never leak into the AI's history.
+	 */
+	List<ConversationPair> findByThreadIdAndStatusOrderByTimestampAsc(String threadId, String status);
+
+	// Newest messages first, one page at a time (backed by idx_conversations_ts)
+	Slice<ConversationPair> findAllByOrderByTimestampDesc(Pageable pageable);
+}
@@ -0,0 +1,35 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Rolling summary of the oldest turns of a thread, used once the full history
+ * no longer fits into the model's context window.
+ */
+@Entity
+@Table(name = "conversation_summaries")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversationSummary {
+
+	@Id
+	@Column(length = 255)
+	private String threadId;
+
+	@Lob
+	@Column(columnDefinition = "CLOB")
+	private String summary;
+
+	// How many of the thread's oldest COMPLETED turns the summary covers
+	private int coveredTurns;
+
+	private LocalDateTime updatedAt;
+}
@@ -0,0 +1,8 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, String> {
+}
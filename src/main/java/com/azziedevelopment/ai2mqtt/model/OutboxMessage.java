@@ -0,0 +1,55 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A response whose publish failed, kept until the outbox publisher gets it delivered.
+ */
+@Entity
+@Table(name = "response_outbox", indexes = {
+	@Index(name = "idx_outbox_next_attempt", columnList = "nextAttemptAt")
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxMessage {
+
+	@Id
+	@Column(length = 255)
+	private String id; // Correlation ID of the prompt
+
+	@Column(length = 255)
+	private String threadId;
+
+	// Transport the prompt arrived on (messaging.type may list several); null = the default one
+	@Column(length = 16)
+	private String transport;
+
+	// The prompt's reply address (see ReplyAddress); null for the transport's default destination
+	@Column(length = 1024)
+	private String replyTo;
+
+	@Column(length = 1024)
+	private String replyCorrelation;
+
+	@Lob
+	@Column(columnDefinition = "CLOB")
+	private String response;
+
+	private int attempts;
+
+	// Null once retries are exhausted; the row stays for inspection
+	private LocalDateTime nextAttemptAt;
+
+	private LocalDateTime createdAt;
+
+	@Column(length = 1000)
+	private String lastError;
+}
@@ -0,0 +1,15 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxRepository extends JpaRepository<OutboxMessage, String> {
+
+	List<OutboxMessage> findTop100ByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(LocalDateTime now);
+
+	long countByNextAttemptAtIsNotNull();
+}
@@ -0,0 +1,14 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * One row of the dashboard's thread list: enough to render the header without loading any messages.
+ */
+public record ThreadSummary(
+	String threadId,
+	long messageCount,
+	LocalDateTime lastTimestamp,
+	String lastStatus
+) {
+}
@@ -0,0 +1,81 @@
+package com.azziedevelopment.ai2mqtt.model;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Thread-level aggregates for the dashboard, read with plain JDBC so no CLOB is ever touched.
+ * <p>
+ * They live in {@code thread_summaries}, one row per thread that {@link #refresh} recomputes whenever the thread's
+ * turns are written. Pages are keyset-paginated on (last activity, thread id), newest first, over an index on
+ * exactly that, so deep pages cost the same as the first one.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ThreadSummaryRepository {
+
+	private static final String THREAD_PAGE = """
+		SELECT thread_id, message_count, last_timestamp, last_status
+		FROM thread_summaries
+		WHERE last_timestamp <= ? AND (last_timestamp < ? OR thread_id < ?)
+		ORDER BY last_timestamp DESC, thread_id DESC
+		LIMIT ?
+		""";
+
+	// Uses idx_conversations_thread_ts, so it costs the size of the thread rather than of the table
+	private static final String REFRESH = """
+		MERGE INTO thread_summaries (thread_id, message_count, last_timestamp, last_status) KEY (thread_id)
+		SELECT c.thread_id, COUNT(*), MAX(c.timestamp),
+		       (SELECT s.status FROM conversations s
+		        WHERE s.thread_id = c.thread_id
+		        ORDER BY s.timestamp DESC LIMIT 1)
+		FROM conversations c
+		WHERE c.thread_id = ?
+		GROUP BY c.thread_id
+		""";
+
+	// Sentinel cursor for the first page: sorts after every real row
+	private static final LocalDateTime FIRST_PAGE = LocalDateTime.of(9999, 12, 31, 23, 59);
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * @param beforeTimestamp last activity of the final thread on the previous page, or null for the first page
+	 * @param beforeThreadId  thread id of the final thread on the previous page (tie-breaker)
+	 */
+	public List<ThreadSummary> findPage(LocalDateTime beforeTimestamp, String beforeThreadId, int limit) {
+		LocalDateTime cursor = (beforeTimestamp != null) ? beforeTimestamp : FIRST_PAGE;
+		String tieBreaker = (beforeThreadId != null) ? beforeThreadId : "";
+
+		return jdbcTemplate.query(THREAD_PAGE,
+			(rs, row) -> new ThreadSummary(
+				rs.getString("thread_id"),
+				rs.getLong("message_count"),
+				rs.getObject("last_timestamp", LocalDateTime.class),
+				rs.getString("last_status")),
+			cursor, cursor, tieBreaker, limit);
+	}
+
+	/**
+	 * Recomputes the summaries of these threads from their rows in {@code conversations}. Runs in the caller's
+	 * transaction if there is one.
+	 */
+	public void refresh(Collection<String> threadIds) {
+		if (threadIds.isEmpty()) {
+			return;
+		}
+		jdbcTemplate.batchUpdate(REFRESH, threadIds.stream().map(threadId -> new Object[]{threadId}).toList());
+	}
+
+	/**
+	 * For a thread whose rows have left {@code conversations} (archived).
+	 */
+	public void delete(String threadId) {
+		jdbcTemplate.update("DELETE FROM thread_summaries WHERE thread_id = ?", threadId);
+	}
+}
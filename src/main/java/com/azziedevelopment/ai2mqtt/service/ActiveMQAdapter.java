@@ -1,34 +1,72 @@
 package com.azziedevelopment.ai2mqtt.service;
 
+import com.azziedevelopment.ai2mqtt.config.ConditionalOnTransport;
 import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.azziedevelopment.ai2mqtt.service.dispatch.Delivery;
+import com.azziedevelopment.ai2mqtt.service.dispatch.PromptDispatcher;
+import com.azziedevelopment.ai2mqtt.service.metrics.PipelineMetrics;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.jms.Destination;
+import jakarta.jms.JMSException;
 import jakarta.jms.Message;
+import jakarta.jms.Queue;
 import jakarta.jms.TextMessage;
+import jakarta.jms.Topic;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Service
-@ConditionalOnProperty(name = "messaging.type", havingValue = "activemq")
+@ConditionalOnTransport("activemq")
 public class ActiveMQAdapter implements MessagingService {
 
+	private static final String QUEUE_PREFIX = "queue://";
+	private static final String TOPIC_PREFIX = "topic://";
+
 	private final JmsTemplate jmsTemplate;
-	private final OpenAIService aiService;
+	private final PromptDispatcher dispatcher;
 	private final ObjectMapper objectMapper;
+	private final PipelineMetrics metrics;
+
+	// Per-request JMSReplyTo (e.g. a requester's temporary queue, or null for ai.responses) and the correlation id
+	// the requester expects back, if it isn't the stored request id
+	private final ReplyRoutes<JmsReplyRoute> replyRoutes = new ReplyRoutes<>();
+
+	// client/transacted: the message is only acknowledged once its prompt has been processed
+	private final boolean ackAfterProcessing;
+	private final Duration processingTimeout;
 
 	@Autowired
-	public ActiveMQAdapter(JmsTemplate jmsTemplate, OpenAIService aiService, ObjectMapper objectMapper) {
+	public ActiveMQAdapter(JmsTemplate jmsTemplate, PromptDispatcher dispatcher, ObjectMapper objectMapper,
+	                       PipelineMetrics metrics,
+	                       @Value("${activemq.ack-mode:auto}") String ackMode,
+	                       @Value("${activemq.processing-timeout:10m}") Duration processingTimeout) {
 		this.jmsTemplate = jmsTemplate;
-		this.aiService = aiService;
+		this.dispatcher = dispatcher;
 		this.objectMapper = objectMapper;
+		this.metrics = metrics;
+		this.ackAfterProcessing = "client".equalsIgnoreCase(ackMode) || "transacted".equalsIgnoreCase(ackMode);
+		this.processingTimeout = processingTimeout;
 	}
 
-	@JmsListener(destination = "ai.prompts")
-	public void onMessage(Message message) {
+	// consumer.prefetchSize: how many prompts the broker pushes to each consumer ahead of time.
+	// Small values spread a backlog evenly over the competing consumers of all replicas.
+	// The optional selector lets a replica take only some prompts, e.g. "priority >= 5".
+	@JmsListener(destination = "${activemq.prompts.destination:ai.prompts}?consumer.prefetchSize=${activemq.prefetch:10}",
+		selector = "${activemq.selector:}")
+	public void onMessage(Message message) throws JMSException, InterruptedException {
+		CountDownLatch processed = null;
+		AIRequest request = null;
 		try {
 			if (message instanceof TextMessage textMessage) {
 				String payload = textMessage.getText();
@@ -40,48 +78,137 @@ public class ActiveMQAdapter implements MessagingService {
 
 				log.debug("Received ActiveMQ Message ID: {}", correlationId);
 
-				AIRequest request;
+				long received = System.nanoTime();
 				try {
 					request = objectMapper.readValue(payload, AIRequest.class);
 
-					// Reconstruct if ID is missing in JSON (DTO has 6 fields now)
+					// Fall back to the JMS correlation ID if the JSON has none
 					if (request.id() == null) {
-						request = new AIRequest(
-							correlationId,
-							request.threadId(),
-							request.text(),
-							request.systemPrompt(),
-							request.maxTokens(),
-							request.temperature()
-						);
+						request = request.withId(correlationId);
 					}
 				} catch (Exception e) {
 					// Fallback: Payload is raw text
-					// We must pass 6 arguments (null for the new fields)
-					request = new AIRequest(correlationId, null, payload, null, null, null);
+					request = new AIRequest(correlationId, null, payload, null, null, null, null);
+				}
+				// An id too long to store is replaced; the reply still carries the one the requester sent
+				String replyCorrelationId = request.id();
+				request = request.withStorableIds();
+				metrics.record(PipelineMetrics.Stage.PARSE, received);
+
+				if (message.getJMSReplyTo() != null || !replyCorrelationId.equals(request.id())) {
+					replyRoutes.put(request.id(), new JmsReplyRoute(message.getJMSReplyTo(), replyCorrelationId));
 				}
 
-				// Pass systemPrompt (arg 4) to the service
-				aiService.processPrompt(
-					request.id(),
-					request.threadId(),
-					request.text(),
-					request.systemPrompt()
-				);
+				// JMS uses 0 for "not set" on both
+				Delivery delivery = new Delivery(message.getJMSRedelivered(),
+					message.getJMSTimestamp() > 0 ? Instant.ofEpochMilli(message.getJMSTimestamp()) : null,
+					message.getJMSExpiration() > 0 ? Instant.ofEpochMilli(message.getJMSExpiration()) : null);
+
+				// Hand off to the shared dispatcher, which keeps each thread's prompts in order
+				// even though several JMS consumers receive them concurrently
+				if (ackAfterProcessing) {
+					processed = new CountDownLatch(1);
+					dispatcher.submit(request, "activemq", delivery, processed::countDown);
+				} else {
+					dispatcher.submit(request, "activemq", delivery, () -> {
+					});
+				}
 			}
 		} catch (Exception e) {
 			log.error("Error processing ActiveMQ message", e);
 		}
+
+		// Holding this consumer also keeps the broker from pushing it more than its prefetch
+		if (processed != null && !processed.await(processingTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+			// Thrown back to the container: no ack (or a rollback), so the broker redelivers it
+			throw new IllegalStateException("Prompt not processed within " + processingTimeout
+				+ " [ID: " + request.id() + "]");
+		}
+	}
+
+	@Override
+	public String transport() {
+		return "activemq";
 	}
 
 	@Override
 	public void sendResponse(String correlationId, String threadId, String responseText) {
-		jmsTemplate.send("ai.responses", session -> {
+		send(correlationId, threadId, responseText, replyRoutes.get(correlationId));
+	}
+
+	@Override
+	public ReplyAddress replyAddress(String correlationId) {
+		JmsReplyRoute route = replyRoutes.get(correlationId);
+		if (route == null) {
+			return null;
+		}
+		try {
+			String destination = switch (route.replyTo()) {
+				case Queue queue -> QUEUE_PREFIX + queue.getQueueName();
+				case Topic topic -> TOPIC_PREFIX + topic.getTopicName();
+				case null, default -> null;
+			};
+			return new ReplyAddress(destination, route.correlationId());
+		} catch (JMSException e) {
+			log.warn("Could not name the reply destination [ID: {}]: {}", correlationId, e.getMessage());
+			return new ReplyAddress(null, route.correlationId());
+		}
+	}
+
+	@Override
+	public void sendResponse(String correlationId, String threadId, String responseText, ReplyAddress replyAddress) {
+		JmsReplyRoute route = null;
+		if (replyAddress != null) {
+			String name = replyAddress.destination();
+			Destination replyTo = (name == null) ? null : jmsTemplate.execute(session -> name.startsWith(TOPIC_PREFIX)
+				? session.createTopic(name.substring(TOPIC_PREFIX.length()))
+				: session.createQueue(name.substring(QUEUE_PREFIX.length())), false);
+			String correlation = (replyAddress.correlation() != null) ? replyAddress.correlation() : correlationId;
+			route = new JmsReplyRoute(replyTo, correlation);
+		}
+		send(correlationId, threadId, responseText, route);
+	}
+
+	private void send(String correlationId, String threadId, String responseText, JmsReplyRoute route) {
+		MessageCreator creator = session -> {
 			TextMessage message = session.createTextMessage(responseText);
-			message.setJMSCorrelationID(correlationId);
+			message.setJMSCorrelationID(replyCorrelationId(route, correlationId));
 			message.setStringProperty("threadId", threadId);
 			return message;
-		});
+		};
+
+		if (route != null && route.replyTo() != null) {
+			jmsTemplate.send(route.replyTo(), creator);
+		} else {
+			jmsTemplate.send("ai.responses", creator);
+		}
+		replyRoutes.remove(correlationId);
 		log.info("Sent ActiveMQ Response [ID: {}]", correlationId);
 	}
+
+	@Override
+	public void sendChunk(String correlationId, String threadId, int sequence, String text, boolean done) {
+		JmsReplyRoute route = replyRoutes.get(correlationId);
+		jmsTemplate.send("ai.responses.stream", session -> {
+			TextMessage message = session.createTextMessage(text);
+			message.setJMSCorrelationID(replyCorrelationId(route, correlationId));
+			message.setStringProperty("threadId", threadId);
+			message.setIntProperty("sequence", sequence);
+			message.setBooleanProperty("done", done);
+			return message;
+		});
+		log.debug("Sent ActiveMQ Chunk [ID: {}, Seq: {}, Done: {}]", correlationId, sequence, done);
+	}
+
+	private static String replyCorrelationId(JmsReplyRoute route, String correlationId) {
+		return (route != null) ? route.correlationId() : correlationId;
+	}
+
+	/**
+	 * Where to answer a prompt and the correlation id to answer with.
+	 *
+	 * @param replyTo the prompt's JMSReplyTo, or null for {@code ai.responses}
+	 */
+	record JmsReplyRoute(Destination replyTo, String correlationId) {
+	}
 }
@@ -21,6 +21,8 @@ public class HAAutoDiscovery {
 	@Qualifier("mqttOutboundHandler")
 	private final MessageHandler mqttOutboundHandler;
 
+	private final ResponseEnvelopeEncoder envelopeEncoder;
+
 	@Value("${mqtt.topic.responses}")
 	private String responseTopic;
 
@@ -53,29 +55,31 @@ public class HAAutoDiscovery {
 	}
 
 	private void sendDiscoveryPacket(String name, String uniqueId, String stateTopic, String valueTemplate, String attrTemplate, String icon) {
-		String configPayload = """
-			{
-			  "name": "%s",
-			  "unique_id": "%s",
-			  "state_topic": "%s",
-			  "value_template": "%s",
-			  "json_attributes_topic": "%s",
-			  "json_attributes_template": "%s",
-			  "icon": "%s",
-			  "device": {
-			    "identifiers": ["ai2mqtt_bridge"],
-			    "name": "AI2MQTT Bridge",
-			    "model": "Spring Boot Service",
-			    "manufacturer": "Azzie Development",
-			    "sw_version": "1.0.0"
-			  }
-			}
-			""".formatted(name, uniqueId, stateTopic, valueTemplate, stateTopic, attrTemplate, icon);
+		byte[] configPayload = envelopeEncoder.encode(gen -> {
+			gen.writeStartObject();
+			gen.writeStringField("name", name);
+			gen.writeStringField("unique_id", uniqueId);
+			gen.writeStringField("state_topic", stateTopic);
+			gen.writeStringField("value_template", valueTemplate);
+			gen.writeStringField("json_attributes_topic", stateTopic);
+			gen.writeStringField("json_attributes_template", attrTemplate);
+			gen.writeStringField("icon", icon);
+			gen.writeObjectFieldStart("device");
+			gen.writeArrayFieldStart("identifiers");
+			gen.writeString("ai2mqtt_bridge");
+			gen.writeEndArray();
+			gen.writeStringField("name", "AI2MQTT Bridge");
+			gen.writeStringField("model", "Spring Boot Service");
+			gen.writeStringField("manufacturer", "Azzie Development");
+			gen.writeStringField("sw_version", "1.0.0");
+			gen.writeEndObject();
+			gen.writeEndObject();
+		});
 
 		// Discovery Topic Format: homeassistant/sensor/<node_id>/<object_id>/config
 		String discoveryTopic = "homeassistant/sensor/ai2mqtt/" + uniqueId + "/config";
 
-		Message<String> message = MessageBuilder
+		Message<byte[]> message = MessageBuilder
 			.withPayload(configPayload)
 			.setHeader("mqtt_topic", discoveryTopic)
 			.setHeader("mqtt_retained", true)
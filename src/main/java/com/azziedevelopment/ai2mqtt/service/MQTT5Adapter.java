@@ -0,0 +1,314 @@
+package com.azziedevelopment.ai2mqtt.service;
+
+import com.azziedevelopment.ai2mqtt.config.ConditionalOnTransport;
+import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.azziedevelopment.ai2mqtt.service.dispatch.Delivery;
+import com.azziedevelopment.ai2mqtt.service.dispatch.PromptDispatcher;
+import com.azziedevelopment.ai2mqtt.service.metrics.PipelineMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.StaticMessageHeaderAccessor;
+import org.springframework.integration.acks.SimpleAcknowledgment;
+import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.mqtt.inbound.Mqttv5PahoMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.outbound.Mqttv5PahoMessageHandler;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * MQTT 5 transport ({@code messaging.type=mqtt5}) for running several bridge instances side by side.
+ * <ul>
+ *   <li>Prompts are consumed through a shared subscription ({@code $share/<group>/<topic>}), so the broker
+ *       hands each prompt to exactly one instance.</li>
+ *   <li>A prompt is acknowledged only once it has been processed, and the broker never has more than
+ *       {@code mqtt5.receive-maximum} unacknowledged prompts out to one instance. A busy instance therefore
+ *       stops receiving and the rest of the group picks up the load.</li>
+ *   <li>If a prompt carries a Response Topic, the answer is published there as plain text with the prompt's
+ *       Correlation Data. Otherwise it goes to {@code mqtt.topic.responses} in the usual JSON envelope.</li>
+ *   <li>Responses expire after {@code mqtt5.response-expiry}, so late subscribers don't get stale answers.
+ *       Prompts expire per the sender's own Message Expiry Interval, which the broker enforces.</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+@ConditionalOnTransport("mqtt5")
+public class MQTT5Adapter implements MessagingService {
+
+	@Autowired
+	@Qualifier("mqttOutboundHandler")
+	private MessageHandler mqttOutboundHandler;
+
+	@Autowired
+	private ResponseEnvelopeEncoder envelopeEncoder;
+
+	@Autowired
+	private ReplyRoutes<ReplyRoute> replyRoutes;
+
+	@Value("${mqtt.topic.stream:${mqtt.topic.responses}/stream}")
+	private String streamTopic;
+
+	@Value("${mqtt5.response-expiry:300}")
+	private long responseExpirySeconds;
+
+	@Override
+	public String transport() {
+		return "mqtt5";
+	}
+
+	@Override
+	public void sendResponse(String correlationId, String threadId, String responseText) {
+		publishResponse(correlationId, threadId, responseText, replyRoutes.get(correlationId));
+		// Only once it went out; a failed publish is retried by the outbox, which needs the route
+		replyRoutes.remove(correlationId);
+	}
+
+	@Override
+	public ReplyAddress replyAddress(String correlationId) {
+		ReplyRoute route = replyRoutes.get(correlationId);
+		if (route == null) {
+			return null;
+		}
+		String correlation = (route.correlationData() != null)
+			? Base64.getEncoder().encodeToString(route.correlationData())
+			: null;
+		return new ReplyAddress(route.responseTopic(), correlation);
+	}
+
+	@Override
+	public void sendResponse(String correlationId, String threadId, String responseText, ReplyAddress replyAddress) {
+		ReplyRoute route = (replyAddress == null) ? null : new ReplyRoute(replyAddress.destination(),
+			(replyAddress.correlation() != null) ? Base64.getDecoder().decode(replyAddress.correlation()) : null);
+		publishResponse(correlationId, threadId, responseText, route);
+		replyRoutes.remove(correlationId);
+	}
+
+	private void publishResponse(String correlationId, String threadId, String responseText, ReplyRoute route) {
+		MessageBuilder<byte[]> message;
+		if (route != null && route.responseTopic() != null) {
+			// Request/response: the requester already knows what it asked, so only the answer is sent
+			message = MessageBuilder.withPayload(responseText.getBytes(StandardCharsets.UTF_8))
+				.setHeader(MqttHeaders.TOPIC, route.responseTopic())
+				.setHeader(MqttHeaders.CORRELATION_DATA, route.correlationData())
+				.setHeader(MessageHeaders.CONTENT_TYPE, "text/plain; charset=utf-8");
+		} else {
+			message = MessageBuilder.withPayload(envelopeEncoder.encodeResponse(correlationId, threadId, responseText));
+		}
+		message.setHeader(MqttHeaders.MESSAGE_EXPIRY_INTERVAL, responseExpirySeconds)
+			.setHeader("threadId", threadId);
+
+		mqttOutboundHandler.handleMessage(message.build());
+		log.info("Sent MQTT5 Response [ID: {}]", correlationId);
+	}
+
+	@Override
+	public void sendChunk(String correlationId, String threadId, int sequence, String text, boolean done) {
+		ReplyRoute route = replyRoutes.get(correlationId);
+
+		MessageBuilder<byte[]> message = MessageBuilder
+			.withPayload(envelopeEncoder.encodeChunk(correlationId, threadId, sequence, text, done))
+			.setHeader(MqttHeaders.TOPIC, (route != null && route.responseTopic() != null)
+				? route.responseTopic() + "/stream"
+				: streamTopic)
+			.setHeader(MqttHeaders.MESSAGE_EXPIRY_INTERVAL, responseExpirySeconds);
+		if (route != null && route.correlationData() != null) {
+			message.setHeader(MqttHeaders.CORRELATION_DATA, route.correlationData());
+		}
+
+		mqttOutboundHandler.handleMessage(message.build());
+		log.debug("Sent MQTT5 Chunk [ID: {}, Seq: {}, Done: {}]", correlationId, sequence, done);
+	}
+
+	/**
+	 * Where to answer a prompt, taken from its MQTT 5 properties.
+	 */
+	record ReplyRoute(String responseTopic, byte[] correlationData) {
+	}
+
+	/**
+	 * INNER CONFIGURATION CLASS
+	 * Same layout as {@link MQTTAdapter.MqttConfiguration}, on the Paho MQTT 5 client.
+	 */
+	@Configuration
+	@ConditionalOnTransport("mqtt5")
+	@RequiredArgsConstructor
+	public static class Mqtt5Configuration {
+
+		private final PromptDispatcher dispatcher;
+		private final ObjectMapper objectMapper;
+		private final PipelineMetrics metrics;
+
+		@Value("${mqtt.broker.url:}")
+		private String brokerUrl;
+
+		@Value("${mqtt.username:}")
+		private String username;
+
+		@Value("${mqtt.password:}")
+		private String password;
+
+		@Value("${mqtt.client.id}")
+		private String clientId;
+
+		// Makes client ids unique per replica; defaults to the container hostname
+		@Value("${mqtt5.instance-id:${HOSTNAME:}}")
+		private String instanceId;
+
+		@Value("${mqtt.topic.prompts}")
+		private String promptTopic;
+
+		@Value("${mqtt.topic.responses}")
+		private String responseTopic;
+
+		// Empty = plain (non-shared) subscription
+		@Value("${mqtt5.share-group:ai2mqtt}")
+		private String shareGroup;
+
+		@Value("${mqtt5.qos:1}")
+		private int qos;
+
+		@Value("${mqtt5.receive-maximum:16}")
+		private int receiveMaximum;
+
+		@Value("${mqtt5.topic-alias-maximum:16}")
+		private int topicAliasMaximum;
+
+		// How long the broker keeps the session (subscription and queued prompts) while we are offline
+		@Value("${mqtt5.session-expiry:1h}")
+		private Duration sessionExpiry;
+
+		private final String fallbackInstanceId = UUID.randomUUID().toString().substring(0, 8);
+
+		@Bean
+		public ReplyRoutes<ReplyRoute> replyRoutes() {
+			return new ReplyRoutes<>();
+		}
+
+		private MqttConnectionOptions connectionOptions() {
+			MqttConnectionOptions options = new MqttConnectionOptions();
+			options.setServerURIs(new String[]{brokerUrl});
+			if (username != null && !username.isBlank()) {
+				options.setUserName(username);
+				options.setPassword(password.getBytes(StandardCharsets.UTF_8));
+			}
+			options.setAutomaticReconnect(true);
+			Duration expiry = effectiveSessionExpiry();
+			options.setCleanStart(expiry.isZero());
+			options.setSessionExpiryInterval(expiry.toSeconds());
+			// Flow control: at most this many unacknowledged QoS 1/2 prompts in flight to this instance
+			options.setReceiveMaximum(receiveMaximum);
+			// Lets the broker replace repeated topic names with short aliases; Paho does the same for
+			// our publishes when the broker's CONNACK allows it
+			options.setTopicAliasMaximum(topicAliasMaximum);
+			return options;
+		}
+
+		private boolean hasStableInstanceId() {
+			return instanceId != null && !instanceId.isBlank();
+		}
+
+		// A random client id is new on every start, so a kept session could never be resumed; it would only
+		// pile up on the broker until it expires
+		private Duration effectiveSessionExpiry() {
+			return hasStableInstanceId() ? sessionExpiry : Duration.ZERO;
+		}
+
+		private String instanceClientId(String role) {
+			String instance = hasStableInstanceId() ? instanceId : fallbackInstanceId;
+			return clientId + "-" + instance + "-" + role;
+		}
+
+		// --- 1. INBOUND (Listener) ---
+		@Bean
+		public MessageChannel mqttInputChannel() {
+			return new DirectChannel();
+		}
+
+		@Bean
+		public Mqttv5PahoMessageDrivenChannelAdapter inboundAdapter() {
+			String topic = (shareGroup == null || shareGroup.isBlank())
+				? promptTopic
+				: "$share/" + shareGroup + "/" + promptTopic;
+
+			Mqttv5PahoMessageDrivenChannelAdapter adapter =
+				new Mqttv5PahoMessageDrivenChannelAdapter(connectionOptions(), instanceClientId("listener"), topic);
+			adapter.setQos(qos);
+			adapter.setManualAcks(true);
+			adapter.setOutputChannel(mqttInputChannel());
+			if (!hasStableInstanceId() && !sessionExpiry.isZero()) {
+				log.warn("Neither mqtt5.instance-id nor HOSTNAME is set, so the client id changes on every start;"
+					+ " using a clean session instead of mqtt5.session-expiry={}", sessionExpiry);
+			}
+			log.info("MQTT5 subscribing to {} (QoS {}, receive maximum {})", topic, qos, receiveMaximum);
+			return adapter;
+		}
+
+		// Runs on the Paho callback thread: parse, remember where to reply, hand off.
+		// The acknowledgement is sent once the dispatcher is done with the prompt.
+		@ServiceActivator(inputChannel = "mqttInputChannel")
+		public void handleMQTTMessage(Message<byte[]> message) {
+			long received = System.nanoTime();
+			String payload = new String(message.getPayload(), StandardCharsets.UTF_8);
+			log.debug("Received MQTT5 Payload: {}", payload);
+
+			AIRequest request;
+			try {
+				request = objectMapper.readValue(payload, AIRequest.class);
+			} catch (Exception e) {
+				// Fallback: Payload is raw text
+				request = new AIRequest(null, null, payload, null, null, null, null);
+			}
+			if (request.id() == null) {
+				request = request.withId(UUID.randomUUID().toString());
+			}
+			request = request.withStorableIds();
+			metrics.record(PipelineMetrics.Stage.PARSE, received);
+
+			String replyTopic = message.getHeaders().get(MqttHeaders.RESPONSE_TOPIC, String.class);
+			byte[] correlationData = message.getHeaders().get(MqttHeaders.CORRELATION_DATA, byte[].class);
+			if (replyTopic != null || correlationData != null) {
+				replyRoutes().put(request.id(), new ReplyRoute(replyTopic, correlationData));
+			}
+
+			SimpleAcknowledgment ack = StaticMessageHeaderAccessor.getAcknowledgment(message);
+			boolean duplicate = Boolean.TRUE.equals(message.getHeaders().get(MqttHeaders.DUPLICATE, Boolean.class));
+			// The broker forwards what is left of the requester's expiry interval
+			Number expirySeconds = message.getHeaders().get(MqttHeaders.MESSAGE_EXPIRY_INTERVAL, Number.class);
+			Delivery delivery = new Delivery(duplicate, null,
+				expirySeconds != null ? Instant.now().plusSeconds(expirySeconds.longValue()) : null);
+			dispatcher.submit(request, "mqtt5", delivery, ack != null ? ack::acknowledge : () -> {
+			});
+		}
+
+		// --- 2. OUTBOUND (Sender Bean) ---
+		// Same bean name as the v3 adapter, so HAAutoDiscovery works on either
+		@Bean("mqttOutboundHandler")
+		public MessageHandler mqttOutboundHandler() {
+			Mqttv5PahoMessageHandler messageHandler =
+				new Mqttv5PahoMessageHandler(connectionOptions(), instanceClientId("sender"));
+			// With QoS > 0 wait for the broker's confirmation, so a failed publish surfaces (and goes to the outbox)
+			messageHandler.setAsync(qos == 0);
+			messageHandler.setDefaultTopic(responseTopic);
+			messageHandler.setDefaultQos(qos);
+			return messageHandler;
+		}
+	}
+}
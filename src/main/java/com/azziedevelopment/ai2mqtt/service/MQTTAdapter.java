@@ -1,6 +1,10 @@
 package com.azziedevelopment.ai2mqtt.service;
 
+import com.azziedevelopment.ai2mqtt.config.ConditionalOnTransport;
 import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.azziedevelopment.ai2mqtt.service.dispatch.Delivery;
+import com.azziedevelopment.ai2mqtt.service.dispatch.PromptDispatcher;
+import com.azziedevelopment.ai2mqtt.service.metrics.PipelineMetrics;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -8,9 +12,10 @@ import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.StaticMessageHeaderAccessor;
+import org.springframework.integration.acks.SimpleAcknowledgment;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.channel.DirectChannel;
 import org.springframework.integration.mqtt.core.DefaultMqttPahoClientFactory;
@@ -18,17 +23,16 @@ import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
 import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
 import org.springframework.integration.mqtt.outbound.MqttPahoMessageHandler;
 import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter;
+import org.springframework.integration.mqtt.support.MqttHeaders;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
-import java.util.UUID;
-
 @Slf4j
 @Service
-@ConditionalOnProperty(name = "messaging.type", havingValue = "mqtt")
+@ConditionalOnTransport("mqtt")
 public class MQTTAdapter implements MessagingService {
 
 	// We inject the handler defined in the inner config below
@@ -37,18 +41,24 @@ public class MQTTAdapter implements MessagingService {
 	@Qualifier("mqttOutboundHandler")
 	private MessageHandler mqttOutboundHandler;
 
+	@Autowired
+	private ResponseEnvelopeEncoder envelopeEncoder;
+
+	// Streamed chunks go to a sub-topic so plain response consumers (e.g. the HA sensor) are unaffected
+	@Value("${mqtt.topic.stream:${mqtt.topic.responses}/stream}")
+	private String streamTopic;
+
+	@Override
+	public String transport() {
+		return "mqtt";
+	}
+
 	@Override
 	public void sendResponse(String correlationId, String threadId, String responseText) {
-		String jsonPayload = """
-			{
-			    "id": "%s",
-			    "threadId": "%s",
-			    "response": "%s"
-			}
-			""".formatted(correlationId, threadId,
-			responseText.replace("\"", "\\\"").replace("\n", "\\n"));
+		// Encoded straight to UTF-8 bytes; Paho publishes a byte[] payload as-is
+		byte[] jsonPayload = envelopeEncoder.encodeResponse(correlationId, threadId, responseText);
 
-		Message<String> message = MessageBuilder.withPayload(jsonPayload).build();
+		Message<byte[]> message = MessageBuilder.withPayload(jsonPayload).build();
 
 		// DIRECT CALL: No channel, no dispatcher, no "missing subscriber" errors.
 		mqttOutboundHandler.handleMessage(message);
@@ -56,17 +66,31 @@ public class MQTTAdapter implements MessagingService {
 		log.info("Sent MQTT Response [ID: {}]", correlationId);
 	}
 
+	@Override
+	public void sendChunk(String correlationId, String threadId, int sequence, String text, boolean done) {
+		byte[] jsonPayload = envelopeEncoder.encodeChunk(correlationId, threadId, sequence, text, done);
+
+		Message<byte[]> message = MessageBuilder
+			.withPayload(jsonPayload)
+			.setHeader("mqtt_topic", streamTopic)
+			.build();
+		mqttOutboundHandler.handleMessage(message);
+
+		log.debug("Sent MQTT Chunk [ID: {}, Seq: {}, Done: {}]", correlationId, sequence, done);
+	}
+
 	/**
 	 * INNER CONFIGURATION CLASS
 	 * Isolates the Bean Definitions so they are fully initialized before the Service uses them.
 	 */
 	@Configuration
-	@ConditionalOnProperty(name = "messaging.type", havingValue = "mqtt")
+	@ConditionalOnTransport("mqtt")
 	@RequiredArgsConstructor
 	public static class MqttConfiguration {
 
-		private final OpenAIService aiService;
+		private final PromptDispatcher dispatcher;
 		private final ObjectMapper objectMapper;
+		private final PipelineMetrics metrics;
 
 		// --- CONNECTION PROPERTIES (Moved here) ---
 		@Value("${mqtt.broker.url:}")
@@ -87,6 +111,14 @@ public class MQTTAdapter implements MessagingService {
 		@Value("${mqtt.topic.responses}")
 		private String responseTopic;
 
+		// 0 = at most once; 1/2 = prompts survive reconnects/restarts (with a persistent session)
+		@Value("${mqtt.qos:1}")
+		private int qos;
+
+		// false = the broker keeps our subscription and queues prompts while we are offline
+		@Value("${mqtt.clean-session:false}")
+		private boolean cleanSession;
+
 		// --- 1. FACTORY ---
 		@Bean
 		public MqttPahoClientFactory mqttClientFactory() {
@@ -99,7 +131,8 @@ public class MQTTAdapter implements MessagingService {
 				options.setPassword(password.toCharArray());
 			}
 
-			options.setCleanSession(true);
+			options.setCleanSession(cleanSession);
+			options.setAutomaticReconnect(true);
 			factory.setConnectionOptions(options);
 			return factory;
 		}
@@ -118,25 +151,34 @@ public class MQTTAdapter implements MessagingService {
 
 			adapter.setCompletionTimeout(5000);
 			adapter.setConverter(new DefaultPahoMessageConverter());
+			adapter.setQos(qos);
+			// Acked once processed, so a prompt lost to a crash is redelivered instead of dropped
+			adapter.setManualAcks(qos > 0);
 			adapter.setOutputChannel(mqttInputChannel());
 			return adapter;
 		}
 
+		// Runs on the Paho callback thread, so it only parses and hands off.
+		// The dispatcher assigns a missing ID and does the slow AI work elsewhere.
 		@ServiceActivator(inputChannel = "mqttInputChannel")
 		public void handleMQTTMessage(Message<String> message) {
 			String payload = message.getPayload();
 			log.debug("Received MQTT Payload: {}", payload);
 
+			long received = System.nanoTime();
+			AIRequest request;
 			try {
-				AIRequest request = objectMapper.readValue(payload, AIRequest.class);
-				String id = (request.id() != null) ? request.id() : UUID.randomUUID().toString();
-
-				aiService.processPrompt(id, request.threadId(), request.text(), request.systemPrompt());
-
+				request = objectMapper.readValue(payload, AIRequest.class);
 			} catch (Exception e) {
-				String id = UUID.randomUUID().toString();
-				aiService.processPrompt(id, null, payload, null);
+				// Fallback: Payload is raw text
+				request = new AIRequest(null, null, payload, null, null, null, null);
 			}
+			metrics.record(PipelineMetrics.Stage.PARSE, received);
+
+			SimpleAcknowledgment ack = StaticMessageHeaderAccessor.getAcknowledgment(message);
+			boolean duplicate = Boolean.TRUE.equals(message.getHeaders().get(MqttHeaders.DUPLICATE, Boolean.class));
+			dispatcher.submit(request, "mqtt", Delivery.of(duplicate), ack != null ? ack::acknowledge : () -> {
+			});
 		}
 
 		// --- 3. OUTBOUND (Sender Bean) ---
@@ -144,7 +186,9 @@ public class MQTTAdapter implements MessagingService {
 		@Bean("mqttOutboundHandler")
 		public MessageHandler mqttOutboundHandler(MqttPahoClientFactory clientFactory) {
 			MqttPahoMessageHandler messageHandler = new MqttPahoMessageHandler(clientId + "-sender", clientFactory);
-			messageHandler.setAsync(true);
+			// With QoS > 0 wait for the broker's confirmation, so a failed publish surfaces (and goes to the outbox)
+			messageHandler.setAsync(qos == 0);
+			messageHandler.setDefaultQos(qos);
 			messageHandler.setDefaultTopic(responseTopic);
 			return messageHandler;
 		}
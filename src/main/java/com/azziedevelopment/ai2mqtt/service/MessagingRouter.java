@@ -0,0 +1,102 @@
+package com.azziedevelopment.ai2mqtt.service;
+
+import com.azziedevelopment.ai2mqtt.config.OnTransportCondition;
+import com.azziedevelopment.ai2mqtt.service.events.DashboardEvents;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends each response back over the transport its prompt arrived on, so several adapters can be active
+ * at once ({@code messaging.type=mqtt,activemq}). The dispatcher {@link #bind binds} a prompt to its
+ * transport on arrival; prompts from elsewhere (e.g. the dashboard) are answered over the first listed transport.
+ * Adapters that aren't a broker (the batch API) are never the default, but still get the answers to their own prompts.
+ * <p>
+ * Transport-specific reply addresses (MQTT 5 response topics, JMS reply queues) stay with the adapters.
+ */
+@Slf4j
+@Service
+public class MessagingRouter {
+
+	private final Map<String, MessagingService> adapters = new LinkedHashMap<>();
+	private final MessagingService defaultAdapter;
+	private final ReplyRoutes<MessagingService> origins = new ReplyRoutes<>();
+	private final DashboardEvents dashboardEvents;
+
+	public MessagingRouter(List<MessagingService> adapters,
+	                       DashboardEvents dashboardEvents,
+	                       @Value("${messaging.type}") String messagingType) {
+		this.dashboardEvents = dashboardEvents;
+		for (String transport : OnTransportCondition.transports(messagingType)) {
+			adapters.stream()
+				.filter(adapter -> adapter.transport().equals(transport))
+				.findFirst()
+				.ifPresent(adapter -> this.adapters.put(transport, adapter));
+		}
+		if (this.adapters.isEmpty()) {
+			throw new IllegalStateException("No messaging adapter for messaging.type=" + messagingType);
+		}
+		this.defaultAdapter = this.adapters.values().iterator().next();
+		adapters.forEach(adapter -> this.adapters.putIfAbsent(adapter.transport(), adapter));
+		log.info("Messaging transports: {} (default {})", this.adapters.keySet(), defaultAdapter.transport());
+	}
+
+	/**
+	 * Remembers which transport a prompt came from, until {@link #unbind}.
+	 */
+	public void bind(String correlationId, String transport) {
+		MessagingService adapter = (transport == null) ? null : adapters.get(transport);
+		if (adapter != null && adapter != defaultAdapter) {
+			origins.put(correlationId, adapter);
+		}
+	}
+
+	public void unbind(String correlationId) {
+		origins.remove(correlationId);
+	}
+
+	/**
+	 * The transport a prompt is answered over.
+	 */
+	public String transportOf(String correlationId) {
+		return adapterFor(correlationId).transport();
+	}
+
+	public boolean acceptsBusyResponse(String correlationId) {
+		return adapterFor(correlationId).acceptsBusyResponse();
+	}
+
+	public void sendResponse(String correlationId, String threadId, String responseText) {
+		adapterFor(correlationId).sendResponse(correlationId, threadId, responseText);
+	}
+
+	/**
+	 * Where the answer to a prompt goes, for storing it with the response (see the outbox).
+	 */
+	public ReplyAddress replyAddressOf(String correlationId) {
+		return adapterFor(correlationId).replyAddress(correlationId);
+	}
+
+	/**
+	 * For responses stored while their prompt was bound (see the outbox); null means the default transport.
+	 */
+	public void sendResponse(String transport, String correlationId, String threadId, String responseText,
+	                         ReplyAddress replyAddress) {
+		MessagingService adapter = (transport == null) ? null : adapters.get(transport);
+		(adapter != null ? adapter : defaultAdapter).sendResponse(correlationId, threadId, responseText, replyAddress);
+	}
+
+	public void sendChunk(String correlationId, String threadId, int sequence, String text, boolean done) {
+		adapterFor(correlationId).sendChunk(correlationId, threadId, sequence, text, done);
+		dashboardEvents.chunk(correlationId, threadId, sequence, text, done);
+	}
+
+	private MessagingService adapterFor(String correlationId) {
+		MessagingService origin = origins.get(correlationId);
+		return (origin != null) ? origin : defaultAdapter;
+	}
+}
@@ -2,6 +2,11 @@ package com.azziedevelopment.ai2mqtt.service;
 
 public interface MessagingService {
 
+	/**
+	 * Name of this transport as listed in {@code messaging.type} (e.g. {@code mqtt}).
+	 */
+	String transport();
+
 	/**
 	 * Sends a processed AI response back to the messaging grid.
 	 * * @param correlationId The Unique ID of the original request (UUID)
@@ -10,4 +15,35 @@ public interface MessagingService {
 	 * @param responseText The final answer from the AI
 	 */
 	void sendResponse(String correlationId, String threadId, String responseText);
+
+	/**
+	 * The stored form of where a prompt's answer goes, while the prompt is waiting for it; null if it goes to
+	 * the transport's default destination.
+	 */
+	default ReplyAddress replyAddress(String correlationId) {
+		return null;
+	}
+
+	/**
+	 * Sends a response that was stored together with its {@link #replyAddress} (see the outbox).
+	 */
+	default void sendResponse(String correlationId, String threadId, String responseText, ReplyAddress replyAddress) {
+		sendResponse(correlationId, threadId, responseText);
+	}
+
+	/**
+	 * Whether a prompt turned away by a full dispatch queue gets {@code dispatch.busy-response} as its answer.
+	 */
+	default boolean acceptsBusyResponse() {
+		return true;
+	}
+
+	/**
+	 * Sends one piece of a streamed response (only used when openai.stream.enabled=true).
+	 *
+	 * @param sequence Position of this chunk, starting at 0
+	 * @param text     The new text since the previous chunk, or the full answer when {@code done}
+	 * @param done     True for the final frame of the stream
+	 */
+	void sendChunk(String correlationId, String threadId, int sequence, String text, boolean done);
 }
@@ -1,150 +1,440 @@
 package com.azziedevelopment.ai2mqtt.service;
 
 import com.azziedevelopment.ai2mqtt.model.ConversationPair;
-import com.azziedevelopment.ai2mqtt.model.ConversationRepository;
+import com.azziedevelopment.ai2mqtt.service.backend.Backend;
+import com.azziedevelopment.ai2mqtt.service.backend.BackendPool;
+import com.azziedevelopment.ai2mqtt.service.backend.StreamInterruptedException;
+import com.azziedevelopment.ai2mqtt.service.cache.InFlightRequests;
+import com.azziedevelopment.ai2mqtt.service.cache.ResponseCache;
+import com.azziedevelopment.ai2mqtt.service.context.ContextAssembler;
+import com.azziedevelopment.ai2mqtt.service.context.ConversationContextCache;
+import com.azziedevelopment.ai2mqtt.service.context.TokenEstimator;
+import com.azziedevelopment.ai2mqtt.service.metrics.PipelineMetrics;
+import com.azziedevelopment.ai2mqtt.service.metrics.PipelineMetrics.Outcome;
+import com.azziedevelopment.ai2mqtt.service.metrics.PipelineMetrics.Stage;
+import com.azziedevelopment.ai2mqtt.service.outbox.ResponseOutbox;
+import com.azziedevelopment.ai2mqtt.service.persistence.ConversationWriter;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 @Service
 public class OpenAIService {
 
-	private final RestClient restClient;
-	private final ConversationRepository repository;
-	private final MessagingService messagingService;
+	private final BackendPool backendPool;
+	private final ConversationWriter conversationWriter;
+	private final ConversationContextCache contextCache;
+	private final ContextAssembler contextAssembler;
+	private final ResponseCache responseCache;
+	private final InFlightRequests inFlightRequests;
+	private final MessagingRouter messagingRouter;
+	private final ResponseOutbox responseOutbox;
+	private final ObjectMapper objectMapper;
+	private final PipelineMetrics metrics;
 
-	private final String defaultModel;
 	private final int defaultMaxTokens;
 	private final String defaultSystemPrompt;
 	private final double defaultTemperature;
+	private final boolean streamEnabled;
+	private final int streamMinChunkChars;
+	private final boolean streamIncludeUsage;
+	private final Duration idempotencyWindow;
+	private final int recentIdsCapacity;
 
-	public OpenAIService(ConversationRepository repository,
-	                     @Lazy MessagingService messagingService,
-	                     RestClient.Builder builder,
-	                     @Value("${openai.base-url}") String baseUrl,
-	                     @Value("${openai.api.key}") String rawApiKey,
-	                     @Value("${openai.model}") String defaultModel,
+	// Ids answered within the idempotency window, oldest first; only these and broker redeliveries are looked up
+	private final Map<String, Long> recentlyCompleted = new LinkedHashMap<>();
+	private final ReentrantLock recentLock = new ReentrantLock();
+
+	public OpenAIService(ConversationWriter conversationWriter,
+	                     ConversationContextCache contextCache,
+	                     ContextAssembler contextAssembler,
+	                     ResponseCache responseCache,
+	                     InFlightRequests inFlightRequests,
+	                     @Lazy MessagingRouter messagingRouter,
+	                     ResponseOutbox responseOutbox,
+	                     ObjectMapper objectMapper,
+	                     PipelineMetrics metrics,
+	                     BackendPool backendPool,
 	                     @Value("${openai.default.max-tokens:500}") int defaultMaxTokens,
 	                     @Value("${openai.system-prompt:You are a helpful assistant.}") String defaultSystemPrompt,
-	                     @Value("${openai.default.temperature:0.7}") double defaultTemperature) {
+	                     @Value("${openai.default.temperature:0.7}") double defaultTemperature,
+	                     @Value("${openai.stream.enabled:false}") boolean streamEnabled,
+	                     @Value("${openai.stream.min-chunk-chars:0}") int streamMinChunkChars,
+	                     @Value("${openai.stream.include-usage:true}") boolean streamIncludeUsage,
+	                     @Value("${dispatch.idempotency-window:1h}") Duration idempotencyWindow,
+	                     @Value("${dispatch.idempotency-recent-ids:10000}") int recentIdsCapacity) {
 
-		this.repository = repository;
-		this.messagingService = messagingService;
-		this.defaultModel = defaultModel;
+		this.conversationWriter = conversationWriter;
+		this.contextCache = contextCache;
+		this.contextAssembler = contextAssembler;
+		this.responseCache = responseCache;
+		this.inFlightRequests = inFlightRequests;
+		this.messagingRouter = messagingRouter;
+		this.responseOutbox = responseOutbox;
+		this.objectMapper = objectMapper;
+		this.metrics = metrics;
+		this.backendPool = backendPool;
 		this.defaultMaxTokens = defaultMaxTokens;
 		this.defaultSystemPrompt = defaultSystemPrompt;
 		this.defaultTemperature = defaultTemperature;
+		this.streamEnabled = streamEnabled;
+		this.streamMinChunkChars = streamMinChunkChars;
+		this.streamIncludeUsage = streamIncludeUsage;
+		this.idempotencyWindow = idempotencyWindow;
+		this.recentIdsCapacity = Math.max(1, recentIdsCapacity);
+	}
 
-		// Validation: Catch missing secrets gracefully
-		String cleanKey;
-		if (rawApiKey == null || rawApiKey.isBlank() || "${GEMINI_API_KEY}".equals(rawApiKey)) {
-			log.error("CRITICAL: OpenAI API Key is missing! App will start, but AI features will fail.");
-			log.info("Solution: Create 'src/main/resources/secrets.properties' with GEMINI_API_KEY=...");
-			cleanKey = "missing-key";
-		} else {
-			cleanKey = rawApiKey.trim();
-			log.info("OpenAI Service Initialized (Key: {}...)", cleanKey.substring(0, Math.min(4, cleanKey.length())));
-		}
+	public void processPrompt(String correlationId, String threadId, String promptText, String systemPromptOverride) {
+		processPrompt(correlationId, threadId, promptText, systemPromptOverride, null, null);
+	}
 
-		this.restClient = builder
-			.baseUrl(baseUrl)
-			.defaultHeader("Authorization", "Bearer " + cleanKey)
-			.defaultHeader("Content-Type", "application/json")
-			.build();
+	public void processPrompt(String correlationId, String threadId, String promptText, String systemPromptOverride,
+	                          Integer maxTokensOverride, Double temperatureOverride) {
+		processPrompt(correlationId, threadId, promptText, systemPromptOverride, maxTokensOverride, temperatureOverride,
+			null, false);
 	}
 
-	public void processPrompt(String correlationId, String threadId, String promptText, String systemPromptOverride) {
+	/**
+	 * @param maxTokensOverride   per-request answer limit, or null for {@code openai.default.max-tokens}
+	 * @param temperatureOverride per-request temperature (0-2), or null for {@code openai.default.temperature}
+	 * @param deadline            after this the answer is of no use and the backend call is not retried, or null
+	 * @param redelivered         the broker flagged the prompt as possibly delivered before
+	 */
+	public void processPrompt(String correlationId, String threadId, String promptText, String systemPromptOverride,
+	                          Integer maxTokensOverride, Double temperatureOverride, Instant deadline,
+	                          boolean redelivered) {
 		if (correlationId == null) correlationId = UUID.randomUUID().toString();
 		if (threadId == null) threadId = UUID.randomUUID().toString();
 
 		log.info("Processing Prompt [Thread: {}]: {}", threadId, promptText);
+		long started = System.nanoTime();
+		// Still bound by the dispatcher, so this is the transport the prompt arrived on
+		String transport = messagingRouter.transportOf(correlationId);
+
+		// 0. Redelivered prompt (e.g. QoS 1 after a reconnect) that was already answered: resend, don't re-ask.
+		// H2 is only asked for prompts the broker flagged as redelivered or ids answered here recently.
+		if (!idempotencyWindow.isZero() && (redelivered || completedRecently(correlationId))) {
+			ConversationPair previous = conversationWriter.find(correlationId).orElse(null);
+			if (previous != null && "COMPLETED".equals(previous.getStatus())
+				&& previous.getTimestamp().isAfter(LocalDateTime.now().minus(idempotencyWindow))) {
+				log.info("Duplicate prompt [ID: {}], re-publishing the stored response", correlationId);
+				publish(correlationId, previous.getThreadId(), previous.getResponse());
+				metrics.record(Outcome.DUPLICATE, transport, started);
+				return;
+			}
+		}
 
-		// 1. Fetch History
-		List<ConversationPair> history = repository.findByThreadIdOrderByTimestampAsc(threadId);
-		List<Map<String, String>> messages = new ArrayList<>();
+		// 1. Fetch History (only hits H2 when the thread is not cached)
+		List<Map<String, String>> history = contextCache.history(threadId);
+		metrics.record(Stage.HISTORY, started);
 
 		// 2. Determine System Prompt
 		String effectiveSystemPrompt = (systemPromptOverride != null && !systemPromptOverride.isBlank())
 			? systemPromptOverride
 			: defaultSystemPrompt;
 
-		messages.add(Map.of("role", "system", "content", effectiveSystemPrompt));
+		int maxTokens = (maxTokensOverride != null && maxTokensOverride > 0) ? maxTokensOverride : defaultMaxTokens;
+		double temperature = (temperatureOverride != null && temperatureOverride >= 0 && temperatureOverride <= 2)
+			? temperatureOverride
+			: defaultTemperature;
 
-		// 3. Add History
-		messages.addAll(history.stream()
-			.map(msg -> List.of(
-				Map.of("role", "user", "content", msg.getPrompt()),
-				Map.of("role", "assistant", "content", (msg.getResponse() != null ? msg.getResponse() : ""))
-			))
-			.flatMap(List::stream)
-			.collect(Collectors.toList()));
+		// 3. Fit System Prompt + newest History + Current User Prompt into the token budget
+		long assembleStarted = System.nanoTime();
+		List<Map<String, String>> messages = contextAssembler.assemble(
+			threadId, effectiveSystemPrompt, history, promptText, maxTokens);
+		metrics.record(Stage.CONTEXT, assembleStarted);
 
-		// 4. Add Current User Prompt
-		messages.add(Map.of("role", "user", "content", promptText));
-
-		// 5. Save PENDING
+		// 4. Save PENDING (write-behind: staged in memory, flushed to H2 in batches)
 		ConversationPair conversation = ConversationPair.builder()
 			.id(correlationId)
 			.threadId(threadId)
 			.prompt(promptText)
 			.status("PENDING")
 			.timestamp(LocalDateTime.now())
+			.maxTokens(maxTokens)
+			.temperature(temperature)
 			.build();
-		repository.save(conversation);
+
+		// 4a. Repeated prompt with the same context: answer from the cache, skip the backend entirely
+		ResponseCache.CacheKey cacheKey = (responseCache.isEnabled() || inFlightRequests.isEnabled())
+			? responseCache.keyFor(backendPool.modelSignature(), messages, temperature, maxTokens)
+			: null;
+		if (responseCache.isEnabled()) {
+			String cachedResponse = responseCache.lookup(cacheKey).orElse(null);
+			if (cachedResponse != null) {
+				conversation.setResponse(cachedResponse);
+				conversation.setStatus("COMPLETED");
+				conversation.setCached(true);
+				conversationWriter.stage(conversation);
+				contextCache.append(threadId, promptText, cachedResponse);
+
+				if (streamEnabled) {
+					messagingRouter.sendChunk(correlationId, threadId, 0, cachedResponse, true);
+				}
+				publish(correlationId, threadId, cachedResponse);
+				rememberCompleted(correlationId);
+				metrics.record(Outcome.CACHED, transport, started);
+				return;
+			}
+		}
+
+		conversationWriter.stage(conversation);
 
 		try {
-			// 6. Call AI Endpoint
-			String aiResponse = callAIEndpoint(messages);
+			// 5. Call AI Endpoint (streamed chunks are published as they arrive).
+			// Identical prompts already in flight share that call instead of starting their own.
+			String aiResponse;
+			if (cacheKey != null && inFlightRequests.isEnabled()) {
+				ResponseCache.CacheKey key = cacheKey;
+				String cid = correlationId;
+				String tid = threadId;
+				InFlightRequests.Outcome outcome = inFlightRequests.execute(key, deadline, () -> {
+					String response = requestCompletion(messages, maxTokens, temperature, cid, tid, deadline);
+					// Cached before the flight ends, so a request arriving in between finds it
+					responseCache.put(key, response);
+					return response;
+				});
+				aiResponse = outcome.response();
+				if (outcome.shared() && streamEnabled) {
+					// The chunks went out under the leader's correlation id; this request gets the final frame
+					messagingRouter.sendChunk(correlationId, threadId, 0, aiResponse, true);
+				}
+			} else {
+				aiResponse = requestCompletion(messages, maxTokens, temperature, correlationId, threadId, deadline);
+				if (cacheKey != null) {
+					responseCache.put(cacheKey, aiResponse);
+				}
+			}
 
-			// 7. Update DB & Send Response
+			// 6. Update DB & Send Response
 			conversation.setResponse(aiResponse);
 			conversation.setStatus("COMPLETED");
-			repository.save(conversation);
+			conversationWriter.stage(conversation);
+			contextCache.append(threadId, promptText, aiResponse);
 
-			messagingService.sendResponse(correlationId, threadId, aiResponse);
+			publish(correlationId, threadId, aiResponse);
+			rememberCompleted(correlationId);
+			metrics.record(Outcome.COMPLETED, transport, started);
 
 		} catch (Exception e) {
 			log.error("AI Call Failed", e);
 			conversation.setStatus("FAILED");
 			conversation.setResponse("Error: " + e.getMessage());
-			repository.save(conversation);
+			conversationWriter.stage(conversation);
+			metrics.record(Outcome.FAILED, transport, started);
+		}
+	}
+
+	private boolean completedRecently(String correlationId) {
+		recentLock.lock();
+		try {
+			Long completedAt = recentlyCompleted.get(correlationId);
+			return completedAt != null && System.nanoTime() - completedAt < idempotencyWindow.toNanos();
+		} finally {
+			recentLock.unlock();
 		}
 	}
 
-	private String callAIEndpoint(List<Map<String, String>> messages) {
-		// FIX: Include temperature in the request payload
-		AIRequestPayload request = new AIRequestPayload(defaultModel, messages, defaultMaxTokens, defaultTemperature);
+	private void rememberCompleted(String correlationId) {
+		if (idempotencyWindow.isZero()) {
+			return;
+		}
+		long now = System.nanoTime();
+		recentLock.lock();
+		try {
+			recentlyCompleted.remove(correlationId);
+			recentlyCompleted.put(correlationId, now);
+			// Expired ids go first; past the capacity the oldest go early and only a redelivery flag finds them
+			Iterator<Long> oldest = recentlyCompleted.values().iterator();
+			while (oldest.hasNext()) {
+				long completedAt = oldest.next();
+				if (recentlyCompleted.size() <= recentIdsCapacity && now - completedAt < idempotencyWindow.toNanos()) {
+					break;
+				}
+				oldest.remove();
+			}
+		} finally {
+			recentLock.unlock();
+		}
+	}
+
+	private void publish(String correlationId, String threadId, String response) {
+		long publishStarted = System.nanoTime();
+		// Falls back to the durable outbox if the broker doesn't take it
+		responseOutbox.deliver(correlationId, threadId, response);
+		metrics.record(Stage.PUBLISH, publishStarted);
+	}
 
-		return restClient.post()
-			.uri("/chat/completions")
-			.body(request)
-			.retrieve()
-			.body(AIResponsePayload.class)
-			.choices().get(0).message().content();
+	private String requestCompletion(List<Map<String, String>> messages, int maxTokens, double temperature,
+	                                 String correlationId, String threadId, Instant deadline) {
+		return streamEnabled
+			? streamAIEndpoint(messages, maxTokens, temperature, correlationId, threadId, deadline)
+			: callAIEndpoint(messages, maxTokens, temperature, deadline);
+	}
+
+	/**
+	 * One-off completion outside of any conversation (nothing is persisted or published).
+	 * Used for housekeeping calls such as thread summaries.
+	 */
+	public String complete(List<Map<String, String>> messages, int maxTokens) {
+		return callAIEndpoint(messages, maxTokens, defaultTemperature, null);
+	}
+
+	private String callAIEndpoint(List<Map<String, String>> messages, int maxTokens, double temperature,
+	                              Instant deadline) {
+		// The pool picks a backend (and fails over to the next one if it is down)
+		return backendPool.execute(quotaCost(messages, maxTokens), deadline, backend -> {
+			// FIX: Include temperature in the request payload
+			AIRequestPayload request = new AIRequestPayload(backend.model(), messages, maxTokens, temperature, false, null);
+
+			long sent = System.nanoTime();
+			AIResponsePayload response = backend.client().forMaxTokens(maxTokens).post()
+				.uri("/chat/completions")
+				.body(request)
+				.exchange((req, res) -> {
+					backend.recordFirstByte(sent);
+					if (res.getStatusCode().isError()) {
+						throw errorFor(res);
+					}
+					return objectMapper.readValue(res.getBody(), AIResponsePayload.class);
+				});
+
+			if (response.usage() != null) {
+				backend.recordUsage(response.usage().prompt_tokens(), response.usage().completion_tokens());
+			}
+			return response.choices().get(0).message().content();
+		});
+	}
+
+	/**
+	 * Same request with {@code stream: true}. The SSE body is read line by line as it arrives,
+	 * each delta is relayed through {@link MessagingRouter#sendChunk}, and the assembled text is returned.
+	 */
+	private String streamAIEndpoint(List<Map<String, String>> messages, int maxTokens, double temperature,
+	                                String correlationId, String threadId, Instant deadline) {
+		return backendPool.execute(quotaCost(messages, maxTokens), deadline, backend -> {
+			// include_usage adds a final chunk with token counts
+			AIRequestPayload request = new AIRequestPayload(backend.model(), messages, maxTokens, temperature, true,
+				streamIncludeUsage ? Map.of("include_usage", true) : null);
+
+			long sent = System.nanoTime();
+			return backend.client().forMaxTokens(maxTokens).post()
+				.uri("/chat/completions")
+				.body(request)
+				.exchange((req, response) -> {
+					if (response.getStatusCode().isError()) {
+						throw errorFor(response);
+					}
+					return relayStream(response.getBody(), correlationId, threadId, backend, sent);
+				});
+		});
+	}
+
+	// Providers count max_tokens against the tokens-per-minute quota up front, not the tokens actually generated
+	private static int quotaCost(List<Map<String, String>> messages, int maxTokens) {
+		return TokenEstimator.estimate(messages) + maxTokens;
+	}
+
+	// Same exception type retrieve() would throw, so the pool can classify it
+	private static RestClientResponseException errorFor(ClientHttpResponse response) throws IOException {
+		return new RestClientResponseException("AI endpoint returned " + response.getStatusCode(),
+			response.getStatusCode(), response.getStatusText(), response.getHeaders(),
+			response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+	}
+
+	private String relayStream(InputStream body, String correlationId, String threadId,
+	                           Backend backend, long sent) throws IOException {
+		StringBuilder full = new StringBuilder();
+		StringBuilder pending = new StringBuilder();
+		int sequence = 0;
+		boolean firstByte = true;
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// SSE: only "data:" lines carry payload; blank lines and ": keep-alive" comments are skipped
+				if (!line.startsWith("data:")) continue;
+				if (firstByte) {
+					backend.recordFirstByte(sent);
+					firstByte = false;
+				}
+				String data = line.substring(5).trim();
+				if ("[DONE]".equals(data)) break;
+
+				JsonNode chunk = objectMapper.readTree(data);
+				JsonNode usage = chunk.path("usage");
+				if (usage.isObject()) {
+					backend.recordUsage(usage.path("prompt_tokens").asInt(), usage.path("completion_tokens").asInt());
+				}
+				String delta = chunk.path("choices").path(0).path("delta").path("content").asText("");
+				if (delta.isEmpty()) continue;
+
+				full.append(delta);
+				pending.append(delta);
+				if (pending.length() >= streamMinChunkChars) {
+					messagingRouter.sendChunk(correlationId, threadId, sequence++, pending.toString(), false);
+					pending.setLength(0);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Before the first chunk a failover is invisible to subscribers; after it, it would duplicate chunks
+			if (sequence > 0) {
+				throw new StreamInterruptedException("Stream broke off after " + sequence + " chunks", e);
+			}
+			throw e;
+		}
+
+		if (!pending.isEmpty()) {
+			messagingRouter.sendChunk(correlationId, threadId, sequence++, pending.toString(), false);
+		}
+		// Final frame carries the whole answer, so late subscribers don't need to reassemble
+		messagingRouter.sendChunk(correlationId, threadId, sequence, full.toString(), true);
+		return full.toString();
 	}
 
 	// --- Inner Records (DTOs) for OpenAI JSON ---
 	// FIX: Added 'temperature' field to the record
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	private record AIRequestPayload(String model, List<Map<String, String>> messages, int max_tokens,
-	                                double temperature) {
+	                                double temperature, boolean stream, Map<String, Object> stream_options) {
 	}
 
-	private record AIResponsePayload(List<AIChoice> choices) {
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	private record AIResponsePayload(List<AIChoice> choices, AIUsage usage) {
 	}
 
+	@JsonIgnoreProperties(ignoreUnknown = true)
 	private record AIChoice(AIMessage message) {
 	}
 
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	private record AIUsage(Integer prompt_tokens, Integer completion_tokens) {
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
 	private record AIMessage(String content) {
 	}
 }
@@ -0,0 +1,12 @@
+package com.azziedevelopment.ai2mqtt.service;
+
+/**
+ * A prompt's reply address in a form that can be stored, so an answer that has to wait in the outbox still
+ * reaches the requester after a restart.
+ *
+ * @param destination an MQTT 5 response topic or a JMS destination ({@code queue://name}, {@code topic://name});
+ *                    null for the transport's default destination
+ * @param correlation what the requester expects back: MQTT 5 correlation data (Base64) or a JMS correlation id
+ */
+public record ReplyAddress(String destination, String correlation) {
+}
@@ -0,0 +1,40 @@
+package com.azziedevelopment.ai2mqtt.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where to answer a prompt (an MQTT 5 response topic, a JMS reply queue, ...), remembered by request id
+ * from the moment the prompt arrives until its response is sent. Bounded, and routes of prompts that
+ * never got an answer (failed or rejected) age out after an hour.
+ */
+class ReplyRoutes<T> {
+
+	private static final int MAX_ROUTES = 10_000;
+	private static final long MAX_AGE_MILLIS = 3_600_000;
+
+	private record Route<T>(T target, long receivedAt) {
+	}
+
+	private final LinkedHashMap<String, Route<T>> routes = new LinkedHashMap<>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Route<T>> eldest) {
+			return size() > MAX_ROUTES
+				|| eldest.getValue().receivedAt() < System.currentTimeMillis() - MAX_AGE_MILLIS;
+		}
+	};
+
+	synchronized void put(String id, T target) {
+		routes.put(id, new Route<>(target, System.currentTimeMillis()));
+	}
+
+	synchronized T get(String id) {
+		Route<T> route = routes.get(id);
+		return (route == null) ? null : route.target();
+	}
+
+	synchronized T remove(String id) {
+		Route<T> route = routes.remove(id);
+		return (route == null) ? null : route.target();
+	}
+}
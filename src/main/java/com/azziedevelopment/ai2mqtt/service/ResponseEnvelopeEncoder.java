@@ -0,0 +1,89 @@
+package com.azziedevelopment.ai2mqtt.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes outbound JSON payloads straight to UTF-8 bytes with Jackson's streaming generator.
+ * <p>
+ * Escaping is done by Jackson, so quotes, backslashes, tabs and control characters in AI output
+ * always produce valid JSON. Output buffers are pooled rather than thread-local because prompts
+ * run on short-lived virtual threads that would never reuse a thread-local buffer.
+ */
+@Component
+public class ResponseEnvelopeEncoder {
+
+	private static final int POOL_SIZE = 32;
+	private static final int FIRST_BLOCK_SIZE = 4096;
+
+	private final JsonFactory jsonFactory;
+	private final BlockingQueue<ByteArrayBuilder> buffers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	public ResponseEnvelopeEncoder(ObjectMapper objectMapper) {
+		this.jsonFactory = objectMapper.getFactory();
+	}
+
+	/**
+	 * {@code {"id": ..., "threadId": ..., "response": ...}}
+	 */
+	public byte[] encodeResponse(String correlationId, String threadId, String responseText) {
+		return encode(gen -> {
+			gen.writeStartObject();
+			gen.writeStringField("id", correlationId);
+			gen.writeStringField("threadId", threadId);
+			gen.writeStringField("response", responseText);
+			gen.writeEndObject();
+		});
+	}
+
+	/**
+	 * A streamed chunk: {@code delta} while streaming, {@code response} (the full text) on the final frame.
+	 */
+	public byte[] encodeChunk(String correlationId, String threadId, int sequence, String text, boolean done) {
+		return encode(gen -> {
+			gen.writeStartObject();
+			gen.writeStringField("id", correlationId);
+			gen.writeStringField("threadId", threadId);
+			gen.writeNumberField("seq", sequence);
+			gen.writeStringField(done ? "response" : "delta", text);
+			gen.writeBooleanField("done", done);
+			gen.writeEndObject();
+		});
+	}
+
+	/**
+	 * Runs {@code body} against a generator backed by a pooled buffer and returns the bytes written.
+	 */
+	public byte[] encode(JsonBody body) {
+		ByteArrayBuilder buffer = buffers.poll();
+		if (buffer == null) {
+			buffer = new ByteArrayBuilder(FIRST_BLOCK_SIZE);
+		}
+
+		try {
+			try (JsonGenerator gen = jsonFactory.createGenerator(buffer, JsonEncoding.UTF8)) {
+				body.write(gen);
+			}
+			return buffer.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not encode JSON payload", e);
+		} finally {
+			buffer.reset();
+			buffers.offer(buffer);
+		}
+	}
+
+	@FunctionalInterface
+	public interface JsonBody {
+		void write(JsonGenerator gen) throws IOException;
+	}
+}
@@ -0,0 +1,355 @@
+package com.azziedevelopment.ai2mqtt.service.archive;
+
+import com.azziedevelopment.ai2mqtt.model.ArchiveIndexRepository;
+import com.azziedevelopment.ai2mqtt.model.ArchivedThread;
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import com.azziedevelopment.ai2mqtt.model.ConversationRepository;
+import com.azziedevelopment.ai2mqtt.model.ThreadSummaryRepository;
+import com.azziedevelopment.ai2mqtt.service.persistence.ConversationWriter;
+import com.azziedevelopment.ai2mqtt.service.search.ConversationIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cold tier for conversation history, so the {@code conversations} table only holds recent threads.
+ * <p>
+ * Threads idle for longer than {@code archive.after} are moved out of H2 into append-only segment files
+ * under {@code archive.dir}, one file per day of last activity. Each thread becomes one GZIP-compressed block;
+ * {@code archive_index} records which segment and offset hold it. When an archived thread gets a new prompt,
+ * {@link #rehydrate} copies its turns back into the table before its history is loaded.
+ * <p>
+ * The same background pass deletes segments older than {@code archive.retention} and rewrites segments in which
+ * more than {@code archive.compaction-threshold} of the bytes belong to rehydrated (dead) blocks. Startup never
+ * touches the segments.
+ */
+@Slf4j
+@Component
+public class ConversationArchive {
+
+	// Threads whose newest turn is older than the cutoff and that have nothing in flight
+	private static final String IDLE_THREADS = """
+		SELECT thread_id FROM conversations
+		GROUP BY thread_id
+		HAVING MAX(timestamp) < ? AND COUNT(CASE WHEN status = 'PENDING' THEN 1 END) = 0
+		ORDER BY MAX(timestamp)
+		LIMIT ?
+		""";
+
+	private static final String SUFFIX = ".seg";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final ConversationRepository repository;
+	private final ArchiveIndexRepository index;
+	private final ThreadSummaryRepository threadSummaries;
+	private final ConversationWriter conversationWriter;
+	private final ConversationIndex conversationIndex;
+	private final TransactionTemplate transactionTemplate;
+
+	private final Path directory;
+	private final Duration archiveAfter;
+	private final Duration retention;
+	private final double compactionThreshold;
+	private final int batchThreads;
+
+	// Serializes everything that writes segments or moves turns between H2 and the archive
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ScheduledExecutorService maintainer =
+		Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("conversation-archive").factory());
+
+	private final Counter archived;
+	private final Counter rehydrated;
+
+	public ConversationArchive(JdbcTemplate jdbcTemplate,
+	                           ConversationRepository repository,
+	                           ArchiveIndexRepository index,
+	                           ThreadSummaryRepository threadSummaries,
+	                           ConversationWriter conversationWriter,
+	                           ConversationIndex conversationIndex,
+	                           PlatformTransactionManager transactionManager,
+	                           MeterRegistry meterRegistry,
+	                           @Value("${archive.enabled:false}") boolean enabled,
+	                           @Value("${archive.dir:./data/archive}") String directory,
+	                           @Value("${archive.after:30d}") Duration archiveAfter,
+	                           @Value("${archive.retention:0d}") Duration retention,
+	                           @Value("${archive.compaction-threshold:0.5}") double compactionThreshold,
+	                           @Value("${archive.interval:1h}") Duration interval,
+	                           @Value("${archive.batch-threads:100}") int batchThreads) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.repository = repository;
+		this.index = index;
+		this.threadSummaries = threadSummaries;
+		this.conversationWriter = conversationWriter;
+		this.conversationIndex = conversationIndex;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.directory = Path.of(directory);
+		this.archiveAfter = archiveAfter;
+		this.retention = retention;
+		this.compactionThreshold = compactionThreshold;
+		this.batchThreads = batchThreads;
+
+		this.archived = Counter.builder("ai2mqtt.archive.threads").tag("action", "archived").register(meterRegistry);
+		this.rehydrated = Counter.builder("ai2mqtt.archive.threads").tag("action", "rehydrated").register(meterRegistry);
+		Gauge.builder("ai2mqtt.archive.size", index, ArchiveIndexRepository::count)
+			.description("Threads currently held in archive segments")
+			.register(meterRegistry);
+
+		// Rehydration works regardless, so turning the archive off never strands archived threads
+		if (enabled) {
+			long period = interval.toMillis();
+			// The first pass waits a minute, keeping startup free of archive work
+			maintainer.scheduleWithFixedDelay(this::maintain, Math.min(period, 60_000), period, TimeUnit.MILLISECONDS);
+			log.info("Conversation archive enabled ({} after {} idle, retention {})", directory, archiveAfter,
+				retention.isZero() ? "forever" : retention);
+		}
+	}
+
+	/**
+	 * Moves an archived thread back into the {@code conversations} table.
+	 *
+	 * @return true if the thread had been archived
+	 */
+	public boolean rehydrate(String threadId) {
+		// Cheap primary-key lookup; almost every thread is not archived
+		if (index.find(threadId).isEmpty()) {
+			return false;
+		}
+
+		lock.lock();
+		try {
+			Optional<ArchivedThread> entry = index.find(threadId);
+			if (entry.isEmpty()) {
+				return false;
+			}
+			List<ConversationPair> turns = read(entry.get());
+			turns.forEach(conversationWriter::stage);
+			conversationWriter.flush();
+			// The block stays in its segment as dead bytes until compaction
+			index.delete(threadId);
+			rehydrated.increment();
+			log.info("Rehydrated archived thread [Thread: {}] with {} turns", threadId, turns.size());
+			return true;
+		} catch (IOException e) {
+			log.error("Failed to rehydrate archived thread [Thread: {}]", threadId, e);
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void maintain() {
+		try {
+			archiveIdleThreads();
+			enforceRetention();
+			compact();
+		} catch (Exception e) {
+			log.error("Archive maintenance failed", e);
+		}
+	}
+
+	private void archiveIdleThreads() throws IOException {
+		// Idle threads have nothing staged, but a flush makes sure the table is complete
+		conversationWriter.flush();
+		LocalDateTime cutoff = LocalDateTime.now().minus(archiveAfter);
+
+		int total = 0;
+		List<String> threads;
+		do {
+			threads = jdbcTemplate.queryForList(IDLE_THREADS, String.class, cutoff, batchThreads);
+			for (String threadId : threads) {
+				archiveThread(threadId);
+				total++;
+			}
+		} while (threads.size() == batchThreads);
+
+		if (total > 0) {
+			log.info("Archived {} idle threads", total);
+		}
+	}
+
+	private void archiveThread(String threadId) throws IOException {
+		lock.lock();
+		try {
+			List<ConversationPair> hot = repository.findByThreadIdOrderByTimestampAsc(threadId);
+			if (hot.isEmpty()) {
+				return;
+			}
+
+			// Already archived once and continued without a rehydration (its history was still cached):
+			// the new block holds both parts and the old one becomes dead bytes
+			Map<String, ConversationPair> turns = new LinkedHashMap<>();
+			Optional<ArchivedThread> previous = index.find(threadId);
+			if (previous.isPresent()) {
+				read(previous.get()).forEach(turn -> turns.put(turn.getId(), turn));
+			}
+			hot.forEach(turn -> turns.put(turn.getId(), turn));
+
+			LocalDateTime lastTimestamp = hot.getLast().getTimestamp() != null
+				? hot.getLast().getTimestamp()
+				: LocalDateTime.now();
+			byte[] block = SegmentCodec.encode(new ArrayList<>(turns.values()));
+			String segment = lastTimestamp.toLocalDate() + SUFFIX;
+			long offset = append(segment, block);
+
+			// The block is on disk before the rows are deleted; a crash in between leaves only dead bytes
+			transactionTemplate.executeWithoutResult(status -> {
+				index.save(new ArchivedThread(threadId, segment, offset, block.length, turns.size(), lastTimestamp));
+				jdbcTemplate.batchUpdate("DELETE FROM conversations WHERE id = ?",
+					hot.stream().map(turn -> new Object[]{turn.getId()}).toList());
+				// Off the dashboard list like its rows; a rehydration writes the turns and so the summary back
+				threadSummaries.delete(threadId);
+			});
+			archived.increment();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enforceRetention() throws IOException {
+		if (retention.isZero() || retention.isNegative()) {
+			return;
+		}
+		LocalDate oldestKept = LocalDate.now().minusDays(retention.toDays());
+		for (Path file : segments()) {
+			LocalDate day = dayOf(file);
+			if (day == null || !day.isBefore(oldestKept)) {
+				continue;
+			}
+			lock.lock();
+			try {
+				String segment = file.getFileName().toString();
+				// Search keeps the text of archived turns; past retention it has to go as well
+				conversationIndex.deleteThreads(index.findBySegment(segment));
+				int threads = index.deleteSegment(segment);
+				Files.deleteIfExists(file);
+				log.info("Deleted archive segment {} ({} threads) past retention", file.getFileName(), threads);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void compact() throws IOException {
+		for (Path file : segments()) {
+			lock.lock();
+			try {
+				String segment = file.getFileName().toString();
+				long size = Files.size(file);
+				long live = index.liveBytes(segment);
+				if (live == 0) {
+					// Everything rehydrated, or left over from an interrupted archive/compaction
+					Files.deleteIfExists(file);
+					continue;
+				}
+				if (size == 0 || (double) (size - live) / size <= compactionThreshold) {
+					continue;
+				}
+				rewrite(file, segment);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	// Copies the live blocks into a new segment of the same day. Switching the index over is the commit point;
+	// either file left behind by a crash has no live blocks and is removed by the next pass.
+	private void rewrite(Path file, String segment) throws IOException {
+		String compacted = segment.substring(0, 10) + "." + System.currentTimeMillis() + SUFFIX;
+		List<ArchivedThread> blocks = index.findBySegment(segment);
+		Map<String, Long> offsets = new LinkedHashMap<>();
+		try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+		     FileChannel target = FileChannel.open(directory.resolve(compacted),
+			     StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			for (ArchivedThread block : blocks) {
+				offsets.put(block.threadId(), target.position());
+				source.transferTo(block.offset(), block.length(), target);
+			}
+			target.force(true);
+		}
+
+		transactionTemplate.executeWithoutResult(status ->
+			offsets.forEach((threadId, offset) -> index.moveBlock(threadId, compacted, offset)));
+		Files.deleteIfExists(file);
+		log.info("Compacted archive segment {} into {} ({} threads)", segment, compacted, blocks.size());
+	}
+
+	private long append(String segment, byte[] block) throws IOException {
+		Files.createDirectories(directory);
+		try (FileChannel channel = FileChannel.open(directory.resolve(segment),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			long offset = channel.size();
+			ByteBuffer buffer = ByteBuffer.wrap(block);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+			return offset;
+		}
+	}
+
+	private List<ConversationPair> read(ArchivedThread entry) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory.resolve(entry.segment()), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(entry.length());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, entry.offset() + buffer.position()) < 0) {
+					throw new IOException("Archive segment " + entry.segment() + " is truncated");
+				}
+			}
+			return SegmentCodec.decode(buffer.array());
+		}
+	}
+
+	private List<Path> segments() throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return List.of();
+		}
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			stream.forEach(files::add);
+		}
+		return files;
+	}
+
+	// Segment names start with the day they hold (yyyy-MM-dd)
+	private static LocalDate dayOf(Path file) {
+		String name = file.getFileName().toString();
+		try {
+			return (name.length() >= 10) ? LocalDate.parse(name.substring(0, 10)) : null;
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		maintainer.shutdownNow();
+	}
+}
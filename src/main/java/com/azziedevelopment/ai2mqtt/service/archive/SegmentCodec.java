@@ -0,0 +1,100 @@
+package com.azziedevelopment.ai2mqtt.service.archive;
+
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes one thread's turns as a GZIP-compressed block for an archive segment.
+ * Binary rather than JSON, so nothing depends on how the ObjectMapper is configured.
+ */
+final class SegmentCodec {
+
+	private static final int VERSION = 1;
+
+	private SegmentCodec() {
+	}
+
+	static byte[] encode(List<ConversationPair> turns) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+			out.writeByte(VERSION);
+			out.writeInt(turns.size());
+			for (ConversationPair turn : turns) {
+				writeString(out, turn.getId());
+				writeString(out, turn.getThreadId());
+				writeString(out, turn.getPrompt());
+				writeString(out, turn.getResponse());
+				writeString(out, turn.getStatus());
+				writeString(out, (turn.getTimestamp() != null) ? turn.getTimestamp().toString() : null);
+				out.writeBoolean(turn.getMaxTokens() != null);
+				if (turn.getMaxTokens() != null) {
+					out.writeInt(turn.getMaxTokens());
+				}
+				out.writeBoolean(turn.getTemperature() != null);
+				if (turn.getTemperature() != null) {
+					out.writeDouble(turn.getTemperature());
+				}
+				// 0 = unknown, 1 = false, 2 = true
+				out.writeByte((turn.getCached() == null) ? 0 : (turn.getCached() ? 2 : 1));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	static List<ConversationPair> decode(byte[] block) throws IOException {
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(block)))) {
+			int version = in.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IOException("Unsupported archive block version " + version);
+			}
+			int count = in.readInt();
+			List<ConversationPair> turns = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				ConversationPair.ConversationPairBuilder turn = ConversationPair.builder()
+					.id(readString(in))
+					.threadId(readString(in))
+					.prompt(readString(in))
+					.response(readString(in))
+					.status(readString(in));
+				String timestamp = readString(in);
+				turn.timestamp((timestamp != null) ? LocalDateTime.parse(timestamp) : null);
+				turn.maxTokens(in.readBoolean() ? in.readInt() : null);
+				turn.temperature(in.readBoolean() ? in.readDouble() : null);
+				int cached = in.readUnsignedByte();
+				turn.cached((cached == 0) ? null : cached == 2);
+				turns.add(turn.build());
+			}
+			return turns;
+		}
+	}
+
+	// Length-prefixed UTF-8; writeUTF would cap answers at 64 KB
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,52 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import com.azziedevelopment.ai2mqtt.config.HttpClientProperties;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * HTTP access to one AI backend, built from an {@link HttpClientProperties.Profile}.
+ * <p>
+ * All requests share one JDK {@link HttpClient} (and therefore its connections). The read timeout
+ * is derived from the requested {@code max_tokens}, so a 50-token voice answer fails fast while a
+ * 4000-token summary gets the time it needs. Timeouts are rounded up to 10 second steps and one
+ * {@link RestClient} per step is cached.
+ */
+public class AIHttpClient {
+
+	private static final long TIMEOUT_STEP_SECONDS = 10;
+
+	private final RestClient baseClient;
+	private final HttpClient httpClient;
+	private final Executor executor;
+	private final HttpClientProperties.Profile profile;
+	private final ConcurrentHashMap<Long, RestClient> clientsByTimeout = new ConcurrentHashMap<>();
+
+	AIHttpClient(RestClient baseClient, HttpClient httpClient, Executor executor, HttpClientProperties.Profile profile) {
+		this.baseClient = baseClient;
+		this.httpClient = httpClient;
+		this.executor = executor;
+		this.profile = profile;
+	}
+
+	public RestClient forMaxTokens(int maxTokens) {
+		long seconds = readTimeout(maxTokens).toSeconds();
+		long stepped = ((seconds + TIMEOUT_STEP_SECONDS - 1) / TIMEOUT_STEP_SECONDS) * TIMEOUT_STEP_SECONDS;
+
+		return clientsByTimeout.computeIfAbsent(stepped, s -> {
+			JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient, executor);
+			requestFactory.setReadTimeout(Duration.ofSeconds(s));
+			return baseClient.mutate().requestFactory(requestFactory).build();
+		});
+	}
+
+	Duration readTimeout(int maxTokens) {
+		Duration timeout = profile.readTimeoutBase().plus(profile.readTimeoutPerToken().multipliedBy(Math.max(0, maxTokens)));
+		return (timeout.compareTo(profile.maxReadTimeout()) > 0) ? profile.maxReadTimeout() : timeout;
+	}
+}
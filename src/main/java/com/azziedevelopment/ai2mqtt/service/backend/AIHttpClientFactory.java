@@ -0,0 +1,66 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import com.azziedevelopment.ai2mqtt.config.HttpClientProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds {@link AIHttpClient}s for AI backends from the named profiles in {@link HttpClientProperties}.
+ */
+@Slf4j
+@Component
+public class AIHttpClientFactory {
+
+	private final HttpClientProperties properties;
+	private final MeterRegistry meterRegistry;
+
+	// The JDK client runs its async plumbing and body handlers here instead of a shared cached pool
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	public AIHttpClientFactory(HttpClientProperties properties, MeterRegistry meterRegistry) {
+		this.properties = properties;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * @param name        Backend name, used to tag metrics
+	 * @param profileName Key under {@code ai.http.profiles}; unknown names fall back to the defaults
+	 */
+	public AIHttpClient create(String name, String baseUrl, String apiKey, String profileName) {
+		HttpClientProperties.Profile profile = properties.profile(profileName);
+
+		HttpClient httpClient = HttpClient.newBuilder()
+			.version(profile.version())
+			.connectTimeout(profile.connectTimeout())
+			.executor(executor)
+			.build();
+
+		JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient, executor);
+		requestFactory.setReadTimeout(profile.maxReadTimeout());
+
+		RestClient baseClient = RestClient.builder()
+			.requestFactory(requestFactory)
+			.requestInterceptor(new ConnectionLimiter(name, profile.maxConnections(), meterRegistry))
+			.baseUrl(baseUrl)
+			.defaultHeader("Authorization", "Bearer " + apiKey)
+			.defaultHeader("Content-Type", "application/json")
+			.build();
+
+		log.info("HTTP client for '{}' uses profile '{}' ({}, max {} connections)",
+			name, profileName, profile.version(), profile.maxConnections());
+		return new AIHttpClient(baseClient, httpClient, executor, profile);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
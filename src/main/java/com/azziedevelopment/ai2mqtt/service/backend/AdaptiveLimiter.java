@@ -0,0 +1,137 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+/**
+ * Finds how many requests one backend can work on at once from the latency it answers with, instead of a fixed
+ * number that is too low for a cloud endpoint and too high for a single GPU box.
+ * <p>
+ * Gradient algorithm: the limit follows {@code tolerance * baseline / recent latency}, plus room for one queued
+ * request so it keeps probing upwards. While requests don't queue at the backend the ratio is at least 1 and
+ * the limit grows; once they do, latency rises above the baseline and the limit shrinks in proportion. A 429,
+ * 5xx or timeout cuts the limit by {@code backoffRatio} straight away (multiplicative decrease, as in AIMD).
+ * <p>
+ * The baseline is the no-load latency. Latency measured under load can't tell a slower model from queueing, so
+ * the baseline only moves down between measurements. Every {@value #PROBE_MULTIPLIER} x limit samples the
+ * limiter lets in-flight requests drain to {@code minLimit} and re-measures it from {@value #PROBE_SAMPLES}
+ * requests sent at that level.
+ */
+class AdaptiveLimiter {
+
+	private static final double SMOOTHING = 0.2;
+	private static final double MIN_GRADIENT = 0.5;
+	private static final double QUEUE_ALLOWANCE = 1;
+	// Samples the recent latency is averaged over; answers of different lengths make single samples noisy
+	private static final int RECENT_WINDOW = 10;
+	private static final int BASELINE_WINDOW = 100;
+	private static final int PROBE_MULTIPLIER = 100;
+	private static final int PROBE_SAMPLES = 3;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double tolerance;
+	private final double backoffRatio;
+
+	private double limit;
+	private int inFlight;
+	private double recentNanos;
+	private double baselineNanos;
+	private long samples;
+	private long nextProbeAt;
+	private int probeSamplesLeft;
+	private double probeTotal;
+
+	AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoffRatio) {
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.tolerance = Math.max(1, tolerance);
+		this.backoffRatio = Math.clamp(backoffRatio, 0.1, 1);
+		this.limit = Math.clamp(initialLimit, this.minLimit, this.maxLimit);
+		this.nextProbeAt = (long) PROBE_MULTIPLIER * (long) limit;
+	}
+
+	/**
+	 * Takes a slot if the backend is below its limit.
+	 *
+	 * @return the number of requests in flight including this one, or 0 if the backend is at its limit
+	 */
+	synchronized int tryAcquire() {
+		int allowed = probing() ? minLimit : (int) limit;
+		if (inFlight >= allowed) {
+			return 0;
+		}
+		return ++inFlight;
+	}
+
+	/**
+	 * Gives the slot back without a latency sample, e.g. after a 400 that says nothing about load.
+	 */
+	synchronized void release() {
+		inFlight--;
+	}
+
+	/**
+	 * Gives the slot back after a successful call.
+	 *
+	 * @param inFlightAtStart what {@link #tryAcquire()} returned for this call
+	 */
+	synchronized void onSuccess(long latencyNanos, int inFlightAtStart) {
+		inFlight--;
+		samples++;
+
+		if (probing()) {
+			// Requests admitted before the probe started are still draining; they don't measure the idle backend
+			if (inFlightAtStart <= minLimit) {
+				probeTotal += latencyNanos;
+				if (--probeSamplesLeft == 0) {
+					baselineNanos = probeTotal / PROBE_SAMPLES;
+					recentNanos = baselineNanos;
+					nextProbeAt = samples + PROBE_MULTIPLIER * (long) limit;
+				}
+			}
+			return;
+		}
+
+		recentNanos = (recentNanos == 0) ? latencyNanos : recentNanos + (latencyNanos - recentNanos) / RECENT_WINDOW;
+		if (baselineNanos == 0) {
+			baselineNanos = recentNanos;
+		} else if (recentNanos < baselineNanos) {
+			baselineNanos += (recentNanos - baselineNanos) / BASELINE_WINDOW;
+		}
+
+		if (samples >= nextProbeAt) {
+			probeSamplesLeft = PROBE_SAMPLES;
+			probeTotal = 0;
+		}
+
+		// With less than half the limit in use, latency says nothing about whether the limit is too low
+		if (inFlightAtStart < limit / 2) {
+			return;
+		}
+		double gradient = Math.clamp(tolerance * baselineNanos / recentNanos, MIN_GRADIENT, 1.0);
+		double target = limit * gradient + QUEUE_ALLOWANCE;
+		setLimit(limit * (1 - SMOOTHING) + target * SMOOTHING);
+	}
+
+	/**
+	 * Gives the slot back after the backend signalled overload (429, 5xx, timeout).
+	 */
+	synchronized void onOverload() {
+		inFlight--;
+		setLimit(limit * backoffRatio);
+	}
+
+	synchronized int limit() {
+		return (int) limit;
+	}
+
+	synchronized int inFlight() {
+		return inFlight;
+	}
+
+	private boolean probing() {
+		return probeSamplesLeft > 0;
+	}
+
+	private void setLimit(double newLimit) {
+		limit = Math.clamp(newLimit, minLimit, maxLimit);
+	}
+}
@@ -0,0 +1,222 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One OpenAI-compatible endpoint in the {@link BackendPool}, with its own client, circuit breaker,
+ * concurrency limiter, rate-limit quota, health flag, latency histograms and token counters.
+ */
+public class Backend {
+
+	private final String name;
+	private final String model;
+	private final int weight;
+	private final AIHttpClient client;
+	private final CircuitBreaker breaker;
+	// Null when ai.routing.limiter.enabled=false
+	private final AdaptiveLimiter limiter;
+	private final ProviderQuota quota;
+
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private volatile boolean healthy = true;
+
+	// Smooth weighted round-robin state, guarded by the pool
+	int currentWeight;
+
+	private final Timer successLatency;
+	private final Timer failureLatency;
+	private final Timer firstByte;
+	private final Counter tokensIn;
+	private final Counter tokensOut;
+	private final Counter throttled;
+
+	Backend(String name, String model, int weight, AIHttpClient client,
+	        int failureThreshold, Duration openDuration, AdaptiveLimiter limiter, ProviderQuota quota,
+	        MeterRegistry meterRegistry) {
+		this.name = name;
+		this.model = model;
+		this.weight = Math.max(1, weight);
+		this.client = client;
+		this.breaker = new CircuitBreaker(failureThreshold, openDuration);
+		this.limiter = limiter;
+		this.quota = quota;
+
+		this.successLatency = latencyTimer(meterRegistry, "success");
+		this.failureLatency = latencyTimer(meterRegistry, "failure");
+		this.firstByte = Timer.builder("ai2mqtt.backend.ttfb")
+			.description("Request sent until the first response body bytes arrived")
+			.tag("backend", name)
+			.publishPercentileHistogram()
+			.register(meterRegistry);
+		this.tokensIn = tokenCounter(meterRegistry, "in");
+		this.tokensOut = tokenCounter(meterRegistry, "out");
+		this.throttled = Counter.builder("ai2mqtt.backend.throttled")
+			.description("Calls held back to stay within the provider's rate limits")
+			.tag("backend", name)
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.backend.outstanding", outstanding, AtomicInteger::get)
+			.tag("backend", name)
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.backend.circuit", breaker, b -> b.state().ordinal())
+			.tag("backend", name)
+			.description("0 = closed, 1 = open, 2 = half-open")
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.backend.healthy", this, b -> b.healthy ? 1 : 0)
+			.tag("backend", name)
+			.register(meterRegistry);
+		if (limiter != null) {
+			Gauge.builder("ai2mqtt.backend.concurrency.limit", limiter, AdaptiveLimiter::limit)
+				.tag("backend", name)
+				.description("Concurrent requests the adaptive limiter currently allows")
+				.register(meterRegistry);
+		}
+	}
+
+	private Timer latencyTimer(MeterRegistry meterRegistry, String outcome) {
+		return Timer.builder("ai2mqtt.backend.latency")
+			.tag("backend", name)
+			.tag("outcome", outcome)
+			.publishPercentileHistogram()
+			.register(meterRegistry);
+	}
+
+	private Counter tokenCounter(MeterRegistry meterRegistry, String direction) {
+		return Counter.builder("ai2mqtt.tokens")
+			.description("Tokens as reported by the provider's usage field")
+			.tag("backend", name)
+			.tag("direction", direction)
+			.register(meterRegistry);
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public String model() {
+		return model;
+	}
+
+	public AIHttpClient client() {
+		return client;
+	}
+
+	int weight() {
+		return weight;
+	}
+
+	int outstanding() {
+		return outstanding.get();
+	}
+
+	boolean isHealthy() {
+		return healthy;
+	}
+
+	void setHealthy(boolean healthy) {
+		this.healthy = healthy;
+	}
+
+	CircuitBreaker breaker() {
+		return breaker;
+	}
+
+	boolean isAvailable() {
+		return healthy && breaker.isAvailable();
+	}
+
+	/**
+	 * @param startNanos {@link System#nanoTime()} taken just before the request was sent
+	 */
+	public void recordFirstByte(long startNanos) {
+		firstByte.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordUsage(Integer promptTokens, Integer completionTokens) {
+		if (promptTokens != null) tokensIn.increment(promptTokens);
+		if (completionTokens != null) tokensOut.increment(completionTokens);
+	}
+
+	/**
+	 * Takes a slot under the concurrency limit.
+	 *
+	 * @return requests in flight including this one (1 without a limiter), or 0 if the backend is at its limit
+	 */
+	int tryBegin() {
+		int inFlight = (limiter == null) ? 1 : limiter.tryAcquire();
+		if (inFlight > 0) {
+			outstanding.incrementAndGet();
+		}
+		return inFlight;
+	}
+
+	/**
+	 * Charges the call against the provider quota.
+	 *
+	 * @return 0 if it may be sent now, otherwise nanos until the quota allows it (nothing is charged then)
+	 */
+	long tryCharge(int estimatedTokens) {
+		long wait = quota.tryAcquire(estimatedTokens);
+		if (wait > 0) {
+			throttled.increment();
+		}
+		return wait;
+	}
+
+	/**
+	 * Gives back a {@link #tryCharge} for a call that was never sent.
+	 */
+	void refund(int estimatedTokens) {
+		quota.refund(estimatedTokens);
+	}
+
+	/**
+	 * The provider answered 429/503 with {@code Retry-After}; nothing more is sent to it until then.
+	 */
+	void pause(long nanos) {
+		quota.pause(nanos);
+	}
+
+	/**
+	 * Gives back a slot taken by {@link #tryBegin()} for a call that was never sent.
+	 */
+	void abandon() {
+		outstanding.decrementAndGet();
+		if (limiter != null) {
+			limiter.release();
+		}
+	}
+
+	void succeeded(long nanos, int inFlightAtStart) {
+		outstanding.decrementAndGet();
+		successLatency.record(nanos, TimeUnit.NANOSECONDS);
+		breaker.onSuccess();
+		if (limiter != null) {
+			limiter.onSuccess(nanos, inFlightAtStart);
+		}
+	}
+
+	void failed(long nanos, boolean backendFault) {
+		outstanding.decrementAndGet();
+		failureLatency.record(nanos, TimeUnit.NANOSECONDS);
+		if (backendFault) {
+			breaker.onFailure();
+		} else {
+			// The backend answered (e.g. 400 Bad Request); it is reachable and working
+			breaker.onSuccess();
+		}
+		if (limiter != null) {
+			if (backendFault) {
+				limiter.onOverload();
+			} else {
+				limiter.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,409 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import com.azziedevelopment.ai2mqtt.config.RoutingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Routes completion calls across one or more OpenAI-compatible backends.
+ * <p>
+ * For each call the configured strategy picks a primary among the available backends (healthy, circuit not open);
+ * the remaining available backends follow as failover targets. A call fails over only on backend faults
+ * (connection errors, timeouts, 5xx, 408, 429). Other errors, such as a 400 for a malformed request, would fail
+ * the same way everywhere and are thrown straight back.
+ * <p>
+ * Backends at their adaptive concurrency limit ({@link AdaptiveLimiter}) are skipped. When all of them are,
+ * the call waits for a free slot, up to {@code ai.routing.limiter.max-wait}. The waiting prompt keeps its
+ * dispatcher slot, so the dispatch queue fills up and the adapters hold back their acknowledgements: the
+ * brokers stop delivering instead of the backends getting swamped.
+ * <p>
+ * Each backend also keeps its provider's requests/tokens per minute ({@link ProviderQuota}); a backend out of quota
+ * is skipped the same way. When every backend failed with a retryable error, the call is retried with jittered
+ * backoff ({@code ai.routing.retry.*}), waiting at least as long as a {@code Retry-After} asks for.
+ */
+@Slf4j
+@Component
+public class BackendPool {
+
+	private final List<Backend> backends;
+	private final RoutingProperties.Strategy strategy;
+	private final String healthCheckPath;
+	private final ScheduledExecutorService healthChecker;
+	private final long maxWaitNanos;
+	private final RoutingProperties.Retry retry;
+	private final Counter retries;
+	private final ReentrantLock capacityLock = new ReentrantLock();
+	private final Condition capacityFreed = capacityLock.newCondition();
+
+	public BackendPool(RoutingProperties routing,
+	                   AIHttpClientFactory clientFactory,
+	                   MeterRegistry meterRegistry,
+	                   @Value("${openai.base-url}") String defaultBaseUrl,
+	                   @Value("${openai.api.key}") String rawApiKey,
+	                   @Value("${openai.model}") String defaultModel,
+	                   @Value("${openai.http-profile:default}") String defaultHttpProfile,
+	                   @Value("${openai.rate-limit.requests-per-minute:0}") int defaultRequestsPerMinute,
+	                   @Value("${openai.rate-limit.tokens-per-minute:0}") int defaultTokensPerMinute) {
+
+		this.strategy = routing.strategy();
+		this.healthCheckPath = routing.healthCheckPath();
+		RoutingProperties.Limiter limits = routing.limiter();
+		this.maxWaitNanos = limits.maxWait().toNanos();
+		this.retry = routing.retry();
+		this.retries = Counter.builder("ai2mqtt.backend.retries")
+			.description("AI calls retried after every backend failed")
+			.register(meterRegistry);
+
+		// Validation: Catch missing secrets gracefully
+		String defaultKey;
+		if (rawApiKey == null || rawApiKey.isBlank() || "${GEMINI_API_KEY}".equals(rawApiKey)) {
+			log.error("CRITICAL: OpenAI API Key is missing! App will start, but AI features will fail.");
+			log.info("Solution: Create 'src/main/resources/secrets.properties' with GEMINI_API_KEY=...");
+			defaultKey = "missing-key";
+		} else {
+			defaultKey = rawApiKey.trim();
+			log.info("OpenAI Service Initialized (Key: {}...)", defaultKey.substring(0, Math.min(4, defaultKey.length())));
+		}
+
+		List<RoutingProperties.BackendDefinition> definitions = routing.backends().isEmpty()
+			? List.of(new RoutingProperties.BackendDefinition("openai", defaultBaseUrl, null, null, 1, defaultHttpProfile,
+				defaultRequestsPerMinute, defaultTokensPerMinute))
+			: routing.backends();
+
+		List<Backend> built = new ArrayList<>(definitions.size());
+		for (RoutingProperties.BackendDefinition def : definitions) {
+			String key = (def.apiKey() == null || def.apiKey().isBlank()) ? defaultKey : def.apiKey().trim();
+			String model = (def.model() == null || def.model().isBlank()) ? defaultModel : def.model();
+			AIHttpClient client = clientFactory.create(def.name(), def.baseUrl(), key, def.httpProfile());
+			AdaptiveLimiter limiter = limits.enabled()
+				? new AdaptiveLimiter(limits.initialLimit(), limits.minLimit(), limits.maxLimit(),
+					limits.tolerance(), limits.backoffRatio())
+				: null;
+			built.add(new Backend(def.name(), model, def.weight(), client,
+				routing.failureThreshold(), routing.openDuration(), limiter,
+				new ProviderQuota(def.requestsPerMinute(), def.tokensPerMinute()), meterRegistry));
+		}
+		this.backends = List.copyOf(built);
+
+		long interval = routing.healthCheckInterval().toMillis();
+		if (interval > 0) {
+			this.healthChecker = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("backend-health").factory());
+			healthChecker.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+		} else {
+			this.healthChecker = null;
+		}
+
+		log.info("AI Backend Pool: {} backend(s), strategy {}, adaptive limit {}",
+			backends.size(), strategy, limits.enabled() ? "on" : "off");
+	}
+
+	public List<Backend> backends() {
+		return backends;
+	}
+
+	/**
+	 * The models a request may be answered by, e.g. for cache keys. Stable across routing decisions.
+	 */
+	public String modelSignature() {
+		return backends.stream().map(Backend::model).distinct().sorted().collect(Collectors.joining(","));
+	}
+
+	/**
+	 * Runs {@code call} against the primary backend, failing over to the others on backend faults.
+	 */
+	public <T> T execute(Function<Backend, T> call) {
+		return execute(0, null, call);
+	}
+
+	/**
+	 * Like {@link #execute(Function)}, but charges {@code estimatedTokens} against the providers' quotas and
+	 * retries with backoff when every backend failed with a retryable error.
+	 *
+	 * @param deadline when the answer is no longer of use (the prompt is too old), or null for none.
+	 *                 Nothing is sent, waited for or retried past it.
+	 */
+	public <T> T execute(int estimatedTokens, Instant deadline, Function<Backend, T> call) {
+		long previousDelay = retry.baseDelay().toNanos();
+		for (int attempt = 1; ; attempt++) {
+			if (deadline != null && Instant.now().isAfter(deadline)) {
+				throw new IllegalStateException("Prompt is past its deadline, not sending it");
+			}
+			try {
+				return attempt(estimatedTokens, deadline, call);
+			} catch (RuntimeException e) {
+				if (attempt >= retry.maxAttempts() || !isBackendFault(e)) {
+					throw e;
+				}
+				long retryAfter = retryAfterNanos(e);
+				if (retryAfter > retry.maxDelay().toNanos()) {
+					log.warn("AI provider asks to retry in {} s, giving up", TimeUnit.NANOSECONDS.toSeconds(retryAfter));
+					throw e;
+				}
+				long delay = nextDelay(previousDelay);
+				previousDelay = delay;
+				delay = Math.max(delay, retryAfter);
+				if (deadline != null && Instant.now().plusNanos(delay).isAfter(deadline)) {
+					log.warn("Not retrying the AI call ({}), the prompt would be past its deadline", e.getMessage());
+					throw e;
+				}
+
+				retries.increment();
+				log.warn("AI call failed ({}), retry {} of {} in {} ms",
+					e.getMessage(), attempt, retry.maxAttempts() - 1, TimeUnit.NANOSECONDS.toMillis(delay));
+				try {
+					TimeUnit.NANOSECONDS.sleep(delay);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * One pass over the candidates. Backends at their concurrency limit or out of quota are skipped;
+	 * if that was all of them, waits for one to free up.
+	 */
+	private <T> T attempt(int estimatedTokens, Instant deadline, Function<Backend, T> call) {
+		long waitUntil = System.nanoTime() + maxWaitNanos;
+		if (deadline != null) {
+			waitUntil = Math.min(waitUntil, System.nanoTime() + Duration.between(Instant.now(), deadline).toNanos());
+		}
+
+		while (true) {
+			List<Backend> order = candidates();
+			if (order.isEmpty()) {
+				throw new IllegalStateException("No AI backend available (all unhealthy or circuit open)");
+			}
+
+			RuntimeException lastFailure = null;
+			boolean saturated = false;
+			long throttledFor = Long.MAX_VALUE;
+			for (Backend backend : order) {
+				int inFlightAtStart = backend.tryBegin();
+				if (inFlightAtStart == 0) {
+					saturated = true;
+					continue;
+				}
+				long quotaWait = backend.tryCharge(estimatedTokens);
+				if (quotaWait > 0) {
+					backend.abandon();
+					signalCapacity();
+					throttledFor = Math.min(throttledFor, quotaWait);
+					continue;
+				}
+				// Another caller may have taken the single half-open trial slot meanwhile
+				if (!backend.breaker().tryAcquire()) {
+					backend.refund(estimatedTokens);
+					backend.abandon();
+					signalCapacity();
+					continue;
+				}
+
+				long start = System.nanoTime();
+				try {
+					T result = call.apply(backend);
+					backend.succeeded(System.nanoTime() - start, inFlightAtStart);
+					return result;
+				} catch (RuntimeException e) {
+					boolean failover = isBackendFault(e);
+					backend.failed(System.nanoTime() - start, failover || e instanceof StreamInterruptedException);
+					if (!failover) {
+						throw e;
+					}
+					long retryAfter = retryAfterNanos(e);
+					if (retryAfter > 0) {
+						backend.pause(retryAfter);
+					}
+					log.warn("Backend '{}' failed ({}), trying next", backend.name(), e.getMessage());
+					lastFailure = e;
+				} finally {
+					signalCapacity();
+				}
+			}
+
+			if (lastFailure != null) {
+				throw lastFailure;
+			}
+			if (!saturated && throttledFor == Long.MAX_VALUE) {
+				throw new IllegalStateException("No AI backend available (all unhealthy or circuit open)");
+			}
+			long remaining = waitUntil - System.nanoTime();
+			// Only the quota holds it back, and not for long enough: fail now rather than at the deadline
+			if (remaining <= 0 || (!saturated && throttledFor > remaining)) {
+				throw new IllegalStateException("All AI backends are at their concurrency or rate limit");
+			}
+			awaitCapacity(Math.min(remaining, throttledFor));
+		}
+	}
+
+	private void awaitCapacity(long maxNanos) {
+		capacityLock.lock();
+		try {
+			// Bounded wait: a slot may free up between the failed attempt and this lock
+			capacityFreed.awaitNanos(Math.min(maxNanos, TimeUnit.MILLISECONDS.toNanos(100)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for an AI backend", e);
+		} finally {
+			capacityLock.unlock();
+		}
+	}
+
+	/**
+	 * Decorrelated jitter: random between the base delay and three times the previous delay, capped.
+	 */
+	private long nextDelay(long previousDelay) {
+		long base = retry.baseDelay().toNanos();
+		long upper = Math.max(base + 1, previousDelay * 3);
+		return Math.min(retry.maxDelay().toNanos(), ThreadLocalRandom.current().nextLong(base, upper));
+	}
+
+	/**
+	 * The {@code Retry-After} of a 429 or 503, in seconds or as an HTTP date; 0 if there is none.
+	 */
+	static long retryAfterNanos(RuntimeException e) {
+		if (!(e instanceof RestClientResponseException response)) {
+			return 0;
+		}
+		int status = response.getStatusCode().value();
+		HttpHeaders headers = response.getResponseHeaders();
+		String value = (headers == null) ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+		if ((status != 429 && status != 503) || value == null || value.isBlank()) {
+			return 0;
+		}
+		try {
+			return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+		} catch (NumberFormatException notSeconds) {
+			try {
+				ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, Duration.between(Instant.now(), at.toInstant()).toNanos());
+			} catch (DateTimeParseException notADate) {
+				return 0;
+			}
+		}
+	}
+
+	private void signalCapacity() {
+		capacityLock.lock();
+		try {
+			capacityFreed.signalAll();
+		} finally {
+			capacityLock.unlock();
+		}
+	}
+
+	/**
+	 * Primary first, then the remaining available backends by fewest outstanding requests.
+	 */
+	List<Backend> candidates() {
+		List<Backend> available = new ArrayList<>(backends.size());
+		for (Backend backend : backends) {
+			if (backend.isAvailable()) {
+				available.add(backend);
+			}
+		}
+		if (available.size() <= 1) {
+			return available;
+		}
+
+		Backend primary = (strategy == RoutingProperties.Strategy.LEAST_OUTSTANDING)
+			? leastOutstanding(available)
+			: weightedRoundRobin(available);
+
+		List<Backend> order = new ArrayList<>(available.size());
+		order.add(primary);
+		available.stream()
+			.filter(b -> b != primary)
+			.sorted(Comparator.comparingInt(Backend::outstanding))
+			.forEach(order::add);
+		return order;
+	}
+
+	private static Backend leastOutstanding(List<Backend> available) {
+		// Normalized by weight, so a backend with twice the weight may carry twice the load
+		Backend best = available.getFirst();
+		for (Backend backend : available) {
+			if ((double) backend.outstanding() / backend.weight() < (double) best.outstanding() / best.weight()) {
+				best = backend;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Smooth weighted round-robin (as in nginx): weights 5/1/1 give A A B A C A A rather than A A A A A B C.
+	 */
+	private synchronized Backend weightedRoundRobin(List<Backend> available) {
+		int total = 0;
+		Backend best = null;
+		for (Backend backend : available) {
+			backend.currentWeight += backend.weight();
+			total += backend.weight();
+			if (best == null || backend.currentWeight > best.currentWeight) {
+				best = backend;
+			}
+		}
+		best.currentWeight -= total;
+		return best;
+	}
+
+	static boolean isBackendFault(RuntimeException e) {
+		if (e instanceof RestClientResponseException response) {
+			int status = response.getStatusCode().value();
+			return status >= 500 || status == 429 || status == 408;
+		}
+		// Connection refused/reset, timeouts
+		return e instanceof ResourceAccessException;
+	}
+
+	private void checkHealth() {
+		for (Backend backend : backends) {
+			boolean healthy;
+			try {
+				// Any answer below 500 (even 404 for servers without /models) proves the server is up
+				healthy = backend.client().forMaxTokens(0).get()
+					.uri(healthCheckPath)
+					.exchange((request, response) -> response.getStatusCode().value() < 500);
+			} catch (Exception e) {
+				healthy = false;
+			}
+
+			if (healthy != backend.isHealthy()) {
+				log.warn("Backend '{}' is now {}", backend.name(), healthy ? "HEALTHY" : "UNHEALTHY");
+			}
+			backend.setHealthy(healthy);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (healthChecker != null) {
+			healthChecker.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import java.time.Duration;
+
+/**
+ * Classic three-state breaker. CLOSED counts consecutive failures; at the threshold it OPENs and
+ * rejects traffic for {@code openDuration}; after that a single trial request is let through
+ * (HALF_OPEN) whose outcome either closes the circuit again or re-opens it.
+ */
+class CircuitBreaker {
+
+	enum State {CLOSED, OPEN, HALF_OPEN}
+
+	private final int failureThreshold;
+	private final long openNanos;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean trialInFlight;
+
+	CircuitBreaker(int failureThreshold, Duration openDuration) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openNanos = openDuration.toNanos();
+	}
+
+	/**
+	 * Whether a request could currently be let through. Does not reserve anything.
+	 */
+	synchronized boolean isAvailable() {
+		return switch (state) {
+			case CLOSED -> true;
+			case OPEN -> System.nanoTime() - openedAt >= openNanos;
+			case HALF_OPEN -> !trialInFlight;
+		};
+	}
+
+	/**
+	 * Reserves the right to send one request. In HALF_OPEN only one caller wins.
+	 */
+	synchronized boolean tryAcquire() {
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+			state = State.HALF_OPEN;
+			trialInFlight = false;
+		}
+		return switch (state) {
+			case CLOSED -> true;
+			case OPEN -> false;
+			case HALF_OPEN -> {
+				if (trialInFlight) yield false;
+				trialInFlight = true;
+				yield true;
+			}
+		};
+	}
+
+	synchronized void onSuccess() {
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		trialInFlight = false;
+	}
+
+	synchronized void onFailure() {
+		trialInFlight = false;
+		if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			openedAt = System.nanoTime();
+		}
+	}
+
+	synchronized State state() {
+		return state;
+	}
+}
@@ -0,0 +1,115 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps concurrent requests to one backend host. The JDK client opens a connection per concurrent
+ * HTTP/1.1 request and exposes no pool limit or pool statistics, so the cap and the metrics live here:
+ * a slot is held from send until the response body is closed (which matters for streamed answers).
+ */
+class ConnectionLimiter implements ClientHttpRequestInterceptor {
+
+	private final Semaphore slots;
+	private final int maxConnections;
+	private final Timer acquireWait;
+
+	ConnectionLimiter(String backend, int maxConnections, MeterRegistry meterRegistry) {
+		this.maxConnections = maxConnections;
+		this.slots = new Semaphore(maxConnections, true);
+
+		Tags tags = Tags.of("backend", backend);
+		Gauge.builder("ai2mqtt.http.connections.active", this, ConnectionLimiter::active)
+			.tags(tags)
+			.description("Requests currently holding a connection slot")
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.http.connections.available", slots, Semaphore::availablePermits)
+			.tags(tags)
+			.description("Free connection slots")
+			.register(meterRegistry);
+		this.acquireWait = Timer.builder("ai2mqtt.http.connections.acquire")
+			.tags(tags)
+			.description("Time spent waiting for a free connection slot")
+			.register(meterRegistry);
+	}
+
+	int active() {
+		return maxConnections - slots.availablePermits();
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+		throws IOException {
+		long start = System.nanoTime();
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a connection slot");
+		}
+		acquireWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+		try {
+			return new SlotReleasingResponse(execution.execute(request, body));
+		} catch (IOException | RuntimeException e) {
+			slots.release();
+			throw e;
+		}
+	}
+
+	private final class SlotReleasingResponse implements ClientHttpResponse {
+
+		private final ClientHttpResponse delegate;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		SlotReleasingResponse(ClientHttpResponse delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public HttpStatusCode getStatusCode() throws IOException {
+			return delegate.getStatusCode();
+		}
+
+		@Override
+		public String getStatusText() throws IOException {
+			return delegate.getStatusText();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return delegate.getHeaders();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			return delegate.getBody();
+		}
+
+		@Override
+		public void close() {
+			try {
+				delegate.close();
+			} finally {
+				if (released.compareAndSet(false, true)) {
+					slots.release();
+				}
+			}
+		}
+	}
+}
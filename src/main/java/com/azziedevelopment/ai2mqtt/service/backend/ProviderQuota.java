@@ -0,0 +1,126 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side copy of a provider's rate limits: one token bucket for requests per minute and one for tokens
+ * per minute, each refilled continuously and holding at most one minute's worth. Keeping under the quota here
+ * avoids the 429s the provider would otherwise answer bursts with.
+ * <p>
+ * A call is charged its prompt estimate plus {@code max_tokens} up front, which is how OpenAI and Gemini count
+ * it against the limit too. A {@code Retry-After} from the provider empties both buckets until then.
+ */
+class ProviderQuota {
+
+	private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	private final Bucket requests;
+	private final Bucket tokens;
+	private long pausedUntil;
+
+	/**
+	 * @param requestsPerMinute 0 for no request limit
+	 * @param tokensPerMinute   0 for no token limit
+	 */
+	ProviderQuota(int requestsPerMinute, int tokensPerMinute) {
+		long now = System.nanoTime();
+		this.requests = (requestsPerMinute > 0) ? new Bucket(requestsPerMinute, now) : null;
+		this.tokens = (tokensPerMinute > 0) ? new Bucket(tokensPerMinute, now) : null;
+		this.pausedUntil = now;
+	}
+
+	/**
+	 * Takes one request and {@code estimatedTokens} if both are available.
+	 *
+	 * @return 0 if taken, otherwise nanos until they will be (nothing is taken then)
+	 */
+	synchronized long tryAcquire(int estimatedTokens) {
+		long now = System.nanoTime();
+		if (now - pausedUntil < 0) {
+			return pausedUntil - now;
+		}
+		// A call bigger than the whole bucket would never fit; let it through once the bucket is full
+		double tokenCost = (tokens == null) ? 0 : Math.min(estimatedTokens, tokens.capacity);
+
+		long wait = 0;
+		if (requests != null) {
+			wait = Math.max(wait, requests.nanosUntil(1, now));
+		}
+		if (tokens != null) {
+			wait = Math.max(wait, tokens.nanosUntil(tokenCost, now));
+		}
+		if (wait > 0) {
+			return wait;
+		}
+		if (requests != null) {
+			requests.level -= 1;
+		}
+		if (tokens != null) {
+			tokens.level -= tokenCost;
+		}
+		return 0;
+	}
+
+	/**
+	 * Gives back what {@link #tryAcquire} took for a call that was never sent.
+	 */
+	synchronized void refund(int estimatedTokens) {
+		// After a Retry-After the buckets stay empty; the provider said there is nothing left
+		if (System.nanoTime() - pausedUntil < 0) {
+			return;
+		}
+		if (requests != null) {
+			requests.level = Math.min(requests.capacity, requests.level + 1);
+		}
+		if (tokens != null) {
+			tokens.level = Math.min(tokens.capacity, tokens.level + Math.min(estimatedTokens, tokens.capacity));
+		}
+	}
+
+	/**
+	 * The provider asked to come back after {@code nanos} (429/503 with {@code Retry-After}).
+	 */
+	synchronized void pause(long nanos) {
+		long until = System.nanoTime() + nanos;
+		if (until - pausedUntil > 0) {
+			pausedUntil = until;
+		}
+		// Whatever is left in the buckets is evidently not there on the provider's side
+		if (requests != null) {
+			requests.level = 0;
+			requests.refilledAt = until;
+		}
+		if (tokens != null) {
+			tokens.level = 0;
+			tokens.refilledAt = until;
+		}
+	}
+
+	private static final class Bucket {
+
+		final double capacity;
+		final double perNano;
+		double level;
+		long refilledAt;
+
+		Bucket(int perMinute, long now) {
+			this.capacity = perMinute;
+			this.perNano = (double) perMinute / MINUTE_NANOS;
+			this.level = perMinute;
+			this.refilledAt = now;
+		}
+
+		long nanosUntil(double amount, long now) {
+			if (now - refilledAt > 0) {
+				level = Math.min(capacity, level + (now - refilledAt) * perNano);
+				refilledAt = now;
+			}
+			double missing = amount - level;
+			if (missing <= 0) {
+				return 0;
+			}
+			// Refill starts only at refilledAt, which lies ahead after a pause
+			return Math.max(0, refilledAt - now) + (long) Math.ceil(missing / perNano);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+/**
+ * A streamed answer broke off after chunks were already published.
+ * Counts against the backend, but is never failed over: a second backend would start the answer again
+ * and subscribers would receive duplicate chunks.
+ */
+public class StreamInterruptedException extends RuntimeException {
+
+	public StreamInterruptedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,185 @@
+package com.azziedevelopment.ai2mqtt.service.batch;
+
+import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.azziedevelopment.ai2mqtt.dto.BatchResult;
+import com.azziedevelopment.ai2mqtt.dto.BatchStatus;
+import lombok.Getter;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One submitted batch: its prompts, the results so far and the SSE clients following it.
+ * <p>
+ * Results are recorded on the dispatcher's threads, so they only queue events for the clients. Each client has a
+ * virtual thread of its own that writes them out, and a stalled client holds up nobody but itself. A batch
+ * sends at most one event per prompt plus one, which bounds each queue.
+ */
+public class BatchJob {
+
+	@Getter
+	private final String id;
+	private final List<AIRequest> prompts;
+	// Internal prompt id (unique across jobs) -> the id the client submitted
+	private final Map<String, String> submittedIds;
+	private final LocalDateTime createdAt = LocalDateTime.now();
+	private final AtomicInteger nextPrompt = new AtomicInteger();
+
+	private final List<BatchResult> results = new ArrayList<>();
+	private final Set<String> answered = new HashSet<>();
+	private final List<Subscriber> subscribers = new ArrayList<>();
+	private int failed;
+	private LocalDateTime finishedAt;
+
+	BatchJob(String id, List<AIRequest> prompts, Map<String, String> submittedIds) {
+		this.id = id;
+		this.prompts = List.copyOf(prompts);
+		this.submittedIds = Map.copyOf(submittedIds);
+	}
+
+	/**
+	 * The next prompt to hand to the dispatcher, or null once all have been.
+	 */
+	AIRequest next() {
+		int index = nextPrompt.getAndIncrement();
+		return (index < prompts.size()) ? prompts.get(index) : null;
+	}
+
+	synchronized boolean hasResult(String promptId) {
+		return answered.contains(promptId);
+	}
+
+	/**
+	 * @param promptId the internal id the prompt was dispatched with; the result reports the submitted one
+	 */
+	synchronized void record(String promptId, String threadId, String status, String response) {
+		if (!answered.add(promptId)) {
+			return;
+		}
+		BatchResult result = new BatchResult(submittedIds.getOrDefault(promptId, promptId), threadId, status, response);
+		results.add(result);
+		if ("FAILED".equals(result.status())) {
+			failed++;
+		}
+		broadcast("result", result);
+
+		if (results.size() == prompts.size()) {
+			finishedAt = LocalDateTime.now();
+			broadcast("done", summary());
+			subscribers.forEach(Subscriber::complete);
+			subscribers.clear();
+		}
+	}
+
+	/**
+	 * Replays the results so far, then streams the rest as they complete.
+	 */
+	public synchronized void subscribe(SseEmitter emitter) {
+		Subscriber subscriber = new Subscriber(emitter);
+		for (BatchResult result : results) {
+			subscriber.send("result", result);
+		}
+		if (finishedAt != null) {
+			subscriber.send("done", summary());
+			subscriber.complete();
+			return;
+		}
+		subscribers.add(subscriber);
+		emitter.onCompletion(() -> unsubscribe(subscriber));
+		emitter.onTimeout(() -> unsubscribe(subscriber));
+		emitter.onError(e -> unsubscribe(subscriber));
+	}
+
+	public synchronized BatchStatus status() {
+		return new BatchStatus(id, (finishedAt == null) ? "RUNNING" : "DONE", prompts.size(),
+			results.size() - failed, failed, createdAt, finishedAt, List.copyOf(results));
+	}
+
+	synchronized boolean finishedBefore(LocalDateTime cutoff) {
+		return finishedAt != null && finishedAt.isBefore(cutoff);
+	}
+
+	int size() {
+		return prompts.size();
+	}
+
+	private synchronized void unsubscribe(Subscriber subscriber) {
+		subscribers.remove(subscriber);
+		subscriber.close();
+	}
+
+	// The final event carries the counts without repeating every result
+	private BatchStatus summary() {
+		return new BatchStatus(id, "DONE", prompts.size(), results.size() - failed, failed, createdAt, finishedAt,
+			List.of());
+	}
+
+	private void broadcast(String event, Object data) {
+		subscribers.removeIf(Subscriber::isGone);
+		subscribers.forEach(subscriber -> subscriber.send(event, data));
+	}
+
+	private static final class Subscriber {
+
+		private final SseEmitter emitter;
+		private final ExecutorService writer =
+			Executors.newSingleThreadExecutor(Thread.ofVirtual().name("batch-events").factory());
+		private volatile boolean gone;
+
+		Subscriber(SseEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		void send(String event, Object data) {
+			write(() -> emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON)));
+		}
+
+		void complete() {
+			write(emitter::complete);
+			writer.shutdown();
+		}
+
+		void close() {
+			gone = true;
+			writer.shutdown();
+		}
+
+		boolean isGone() {
+			return gone;
+		}
+
+		private void write(Write write) {
+			try {
+				writer.execute(() -> {
+					if (gone) {
+						return;
+					}
+					try {
+						write.run();
+					} catch (IOException | IllegalStateException e) {
+						// Client went away
+						close();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Already closed
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface Write {
+		void run() throws IOException;
+	}
+}
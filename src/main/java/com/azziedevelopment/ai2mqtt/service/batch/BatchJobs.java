@@ -0,0 +1,167 @@
+package com.azziedevelopment.ai2mqtt.service.batch;
+
+import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import com.azziedevelopment.ai2mqtt.service.MessagingService;
+import com.azziedevelopment.ai2mqtt.service.dispatch.PromptDispatcher;
+import com.azziedevelopment.ai2mqtt.service.persistence.ConversationWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs batches of prompts submitted over HTTP through the regular {@link PromptDispatcher} pipeline.
+ * <p>
+ * A batch never has more than {@code batch.parallelism} prompts in the dispatcher at once, and they run at
+ * {@code batch.default-priority} unless a prompt sets its own, so a nightly job of hundreds of prompts neither
+ * overflows the dispatch queue nor holds up interactive requests. As the "http" transport this is also where
+ * their answers are delivered (instead of a broker). Finished jobs are kept for {@code batch.retention}.
+ */
+@Slf4j
+@Service
+public class BatchJobs implements MessagingService {
+
+	public static final String TRANSPORT = "http";
+
+	private final PromptDispatcher dispatcher;
+	private final ConversationWriter conversationWriter;
+	private final int maxSize;
+	private final int parallelism;
+	private final int defaultPriority;
+	private final Duration retention;
+
+	private final Map<String, BatchJob> jobs = new ConcurrentHashMap<>();
+	// Internal prompt id -> its batch, while the prompt is being processed
+	private final Map<String, BatchJob> running = new ConcurrentHashMap<>();
+
+	public BatchJobs(PromptDispatcher dispatcher,
+	                 ConversationWriter conversationWriter,
+	                 @Value("${batch.max-size:1000}") int maxSize,
+	                 @Value("${batch.parallelism:4}") int parallelism,
+	                 @Value("${batch.default-priority:2}") int defaultPriority,
+	                 @Value("${batch.retention:1h}") Duration retention) {
+		this.dispatcher = dispatcher;
+		this.conversationWriter = conversationWriter;
+		this.maxSize = maxSize;
+		this.parallelism = Math.max(1, parallelism);
+		this.defaultPriority = defaultPriority;
+		this.retention = retention;
+	}
+
+	/**
+	 * Starts a batch and returns without waiting for any of it.
+	 *
+	 * @throws IllegalArgumentException if the batch is empty, too large, contains a prompt without text or uses
+	 *                                  an id twice
+	 */
+	public BatchJob submit(List<AIRequest> prompts) {
+		if (prompts == null || prompts.isEmpty()) {
+			throw new IllegalArgumentException("A batch needs at least one prompt");
+		}
+		if (prompts.size() > maxSize) {
+			throw new IllegalArgumentException("A batch may have at most " + maxSize + " prompts");
+		}
+		if (prompts.stream().anyMatch(prompt -> prompt == null || prompt.text() == null || prompt.text().isBlank())) {
+			throw new IllegalArgumentException("Every prompt needs a text");
+		}
+		purgeExpired();
+
+		// Ids are assigned up front so results can be matched to prompts before they have run
+		List<AIRequest> assigned = prompts.stream()
+			.map(prompt -> (prompt.id() == null) ? prompt.withId(UUID.randomUUID().toString()) : prompt)
+			.map(prompt -> (prompt.threadId() == null) ? prompt.withThreadId(UUID.randomUUID().toString()) : prompt)
+			.map(prompt -> (prompt.priority() == null) ? prompt.withPriority(defaultPriority) : prompt)
+			.map(AIRequest::withStorableIds)
+			.toList();
+		// Results are matched by id, so a repeated one would leave the batch waiting for a result forever
+		if (assigned.stream().map(AIRequest::id).distinct().count() < assigned.size()) {
+			throw new IllegalArgumentException("Every prompt in a batch needs its own id");
+		}
+
+		// Jobs may reuse each other's ids (e.g. "1".."N" every night), so prompts run under an id of their own job
+		String jobId = UUID.randomUUID().toString();
+		List<AIRequest> dispatched = new ArrayList<>(assigned.size());
+		Map<String, String> submittedIds = new HashMap<>();
+		for (AIRequest prompt : assigned) {
+			String internalId = UUID.nameUUIDFromBytes((jobId + ":" + prompt.id()).getBytes(StandardCharsets.UTF_8))
+				.toString();
+			dispatched.add(prompt.withId(internalId));
+			submittedIds.put(internalId, prompt.id());
+		}
+
+		BatchJob job = new BatchJob(jobId, dispatched, submittedIds);
+		jobs.put(job.getId(), job);
+		log.info("Batch [Job: {}] accepted with {} prompts", job.getId(), job.size());
+
+		for (int i = 0; i < Math.min(parallelism, job.size()); i++) {
+			submitNext(job);
+		}
+		return job;
+	}
+
+	public Optional<BatchJob> find(String jobId) {
+		return Optional.ofNullable(jobs.get(jobId));
+	}
+
+	private void submitNext(BatchJob job) {
+		AIRequest next = job.next();
+		if (next == null) {
+			return;
+		}
+		running.put(next.id(), job);
+		dispatcher.submit(next, TRANSPORT, () -> finished(job, next));
+	}
+
+	// Runs when the dispatcher is done with a prompt; one that got no answer failed or was turned away
+	private void finished(BatchJob job, AIRequest request) {
+		running.remove(request.id());
+		if (!job.hasResult(request.id())) {
+			ConversationPair pair = conversationWriter.find(request.id()).orElse(null);
+			String error = (pair != null && "FAILED".equals(pair.getStatus()))
+				? pair.getResponse()
+				: "Not processed (dispatch queue full or too old)";
+			job.record(request.id(), request.threadId(), "FAILED", error);
+		}
+		submitNext(job);
+	}
+
+	private void purgeExpired() {
+		LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+		jobs.values().removeIf(job -> job.finishedBefore(cutoff));
+	}
+
+	@Override
+	public String transport() {
+		return TRANSPORT;
+	}
+
+	@Override
+	public void sendResponse(String correlationId, String threadId, String responseText) {
+		BatchJob job = running.get(correlationId);
+		if (job != null) {
+			job.record(correlationId, threadId, "COMPLETED", responseText);
+		}
+	}
+
+	// A prompt turned away by a full queue is reported as a failed result, not answered with the busy text
+	@Override
+	public boolean acceptsBusyResponse() {
+		return false;
+	}
+
+	// Batch results are whole answers; the final sendResponse follows the stream anyway
+	@Override
+	public void sendChunk(String correlationId, String threadId, int sequence, String text, boolean done) {
+	}
+}
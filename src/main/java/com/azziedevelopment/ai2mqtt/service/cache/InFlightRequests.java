@@ -0,0 +1,100 @@
+package com.azziedevelopment.ai2mqtt.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for identical prompts: while a completion for a {@link ResponseCache.CacheKey} is in progress,
+ * further requests with the same key wait for it instead of calling the backend again.
+ * Only the backend call is shared; every request still gets its own row and its own publish.
+ * <p>
+ * A follower waits at most until its own deadline, and never longer than {@code response-cache.coalesce-max-wait}.
+ * If the leader hasn't finished by then, the follower makes the call itself.
+ */
+@Slf4j
+@Component
+public class InFlightRequests {
+
+	private final boolean enabled;
+	private final Duration maxWait;
+	private final ConcurrentHashMap<ResponseCache.CacheKey, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+	private final Counter coalesced;
+
+	public InFlightRequests(MeterRegistry meterRegistry,
+	                        @Value("${response-cache.coalesce:true}") boolean enabled,
+	                        @Value("${response-cache.coalesce-max-wait:5m}") Duration maxWait) {
+		this.enabled = enabled;
+		this.maxWait = maxWait;
+		this.coalesced = Counter.builder("ai2mqtt.response.coalesced").register(meterRegistry);
+		Gauge.builder("ai2mqtt.response.inflight", inFlight, ConcurrentHashMap::size).register(meterRegistry);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public Outcome execute(ResponseCache.CacheKey key, Supplier<String> call) {
+		return execute(key, null, call);
+	}
+
+	/**
+	 * Runs {@code call} unless an identical one is already running, in which case its result (or failure) is shared.
+	 *
+	 * @param deadline when the caller's answer is of no use any more, or null
+	 */
+	public Outcome execute(ResponseCache.CacheKey key, Instant deadline, Supplier<String> call) {
+		CompletableFuture<String> mine = new CompletableFuture<>();
+		CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+
+		if (running != null) {
+			coalesced.increment();
+			long waitNanos = maxWait.toNanos();
+			if (deadline != null) {
+				waitNanos = Math.min(waitNanos, Duration.between(Instant.now(), deadline).toNanos());
+			}
+			try {
+				return new Outcome(running.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS), true);
+			} catch (ExecutionException e) {
+				throw (e.getCause() instanceof RuntimeException re) ? re : new IllegalStateException(e.getCause());
+			} catch (TimeoutException e) {
+				// The leader is stuck or slow; its result may still arrive for the others, this one goes on its own
+				log.warn("Identical request still running after {} ms, calling the backend separately",
+					TimeUnit.NANOSECONDS.toMillis(Math.max(0, waitNanos)));
+				return new Outcome(call.get(), false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for an identical request", e);
+			}
+		}
+
+		try {
+			String response = call.get();
+			mine.complete(response);
+			return new Outcome(response, false);
+		} catch (RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, mine);
+		}
+	}
+
+	/**
+	 * @param shared true if the response came from another request's backend call
+	 */
+	public record Outcome(String response, boolean shared) {
+	}
+}
@@ -0,0 +1,61 @@
+package com.azziedevelopment.ai2mqtt.service.cache;
+
+import java.util.Arrays;
+
+/**
+ * MinHash signature over character trigrams of a normalized prompt.
+ * Two signatures agree on roughly the same fraction of slots as the prompts' trigram sets overlap
+ * (Jaccard similarity), so "summarize today's weather" and "summarise todays weather" score high
+ * while unrelated prompts score near zero. Fixed size, so comparing is O(1) regardless of prompt length.
+ */
+final class PromptSignature {
+
+	private static final int SLOTS = 64;
+	private static final int SHINGLE = 3;
+
+	private final int[] mins;
+
+	private PromptSignature(int[] mins) {
+		this.mins = mins;
+	}
+
+	static PromptSignature of(String normalizedPrompt) {
+		int[] mins = new int[SLOTS];
+		Arrays.fill(mins, Integer.MAX_VALUE);
+
+		String text = (normalizedPrompt.length() < SHINGLE)
+			? normalizedPrompt + "  ".substring(0, SHINGLE - normalizedPrompt.length())
+			: normalizedPrompt;
+		for (int i = 0; i + SHINGLE <= text.length(); i++) {
+			int shingle = text.substring(i, i + SHINGLE).hashCode();
+			for (int slot = 0; slot < SLOTS; slot++) {
+				int h = mix(shingle, slot);
+				if (h < mins[slot]) {
+					mins[slot] = h;
+				}
+			}
+		}
+		return new PromptSignature(mins);
+	}
+
+	double similarity(PromptSignature other) {
+		int same = 0;
+		for (int slot = 0; slot < SLOTS; slot++) {
+			if (mins[slot] == other.mins[slot]) {
+				same++;
+			}
+		}
+		return (double) same / SLOTS;
+	}
+
+	// One independent-enough hash function per slot (murmur3 finalizer over value ^ seed)
+	private static int mix(int value, int slot) {
+		int h = value ^ (slot * 0x9E3779B9);
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
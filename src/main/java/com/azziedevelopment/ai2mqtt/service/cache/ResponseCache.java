@@ -0,0 +1,197 @@
+package com.azziedevelopment.ai2mqtt.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Caches AI answers for repeated prompts, e.g. Home Assistant automations that send the same
+ * briefing template several times a day.
+ * <p>
+ * The key is a hash of everything that shapes the answer except the prompt (model, temperature, max tokens,
+ * system prompt and history) plus the normalized prompt (trimmed, lower-cased, whitespace collapsed).
+ * Entries expire after {@code response-cache.ttl} and the least recently used ones are evicted beyond
+ * {@code response-cache.max-entries}.
+ * <p>
+ * In near-duplicate mode ({@code response-cache.similarity-threshold} below 1.0) a miss on the exact key
+ * falls back to the most similar cached prompt with the same context, compared by {@link PromptSignature}.
+ */
+@Slf4j
+@Component
+public class ResponseCache {
+
+	private final boolean enabled;
+	private final long ttlMillis;
+	private final int maxEntries;
+	private final double similarityThreshold;
+
+	private final LinkedHashMap<CacheKey, Entry> entries;
+	// Context hash -> cached entries with that context, for near-duplicate lookups. Holding the entries lets the
+	// scan read candidates without touching the access order of entries; only the winner counts as used.
+	private final Map<String, Map<CacheKey, Entry>> byContext = new HashMap<>();
+
+	private final Counter exactHits;
+	private final Counter similarHits;
+	private final Counter misses;
+
+	public ResponseCache(MeterRegistry meterRegistry,
+	                     @Value("${response-cache.enabled:false}") boolean enabled,
+	                     @Value("${response-cache.ttl:10m}") Duration ttl,
+	                     @Value("${response-cache.max-entries:1000}") int maxEntries,
+	                     @Value("${response-cache.similarity-threshold:1.0}") double similarityThreshold) {
+		this.enabled = enabled;
+		this.ttlMillis = ttl.toMillis();
+		this.maxEntries = maxEntries;
+		this.similarityThreshold = similarityThreshold;
+
+		this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+				if (size() > ResponseCache.this.maxEntries) {
+					unindex(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+
+		this.exactHits = Counter.builder("ai2mqtt.response.cache.requests").tag("result", "hit").register(meterRegistry);
+		this.similarHits = Counter.builder("ai2mqtt.response.cache.requests").tag("result", "similar").register(meterRegistry);
+		this.misses = Counter.builder("ai2mqtt.response.cache.requests").tag("result", "miss").register(meterRegistry);
+		Gauge.builder("ai2mqtt.response.cache.entries", this, ResponseCache::size).register(meterRegistry);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param messages the full request, system prompt first and the new user prompt last
+	 */
+	public CacheKey keyFor(String model, List<Map<String, String>> messages, double temperature, int maxTokens) {
+		MessageDigest digest = sha256();
+		update(digest, model);
+		update(digest, Double.toString(temperature));
+		update(digest, Integer.toString(maxTokens));
+		for (int i = 0; i < messages.size() - 1; i++) {
+			update(digest, messages.get(i).get("role"));
+			update(digest, normalize(messages.get(i).get("content")));
+		}
+		String prompt = normalize(messages.getLast().get("content")).toLowerCase(Locale.ROOT);
+		return new CacheKey(HexFormat.of().formatHex(digest.digest()), prompt);
+	}
+
+	public synchronized Optional<String> lookup(CacheKey key) {
+		if (!enabled) {
+			return Optional.empty();
+		}
+		long now = System.currentTimeMillis();
+
+		Entry exact = entries.get(key);
+		if (exact != null) {
+			if (exact.expiresAt() > now) {
+				exactHits.increment();
+				return Optional.of(exact.response());
+			}
+			entries.remove(key);
+			unindex(key);
+		}
+
+		Map<CacheKey, Entry> candidates = byContext.get(key.contextHash());
+		if (similarityThreshold < 1.0 && candidates != null) {
+			CacheKey best = null;
+			double bestScore = similarityThreshold;
+			PromptSignature signature = PromptSignature.of(key.prompt());
+			Iterator<Map.Entry<CacheKey, Entry>> it = candidates.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<CacheKey, Entry> candidate = it.next();
+				if (candidate.getValue().expiresAt() <= now) {
+					it.remove();
+					entries.remove(candidate.getKey());
+					continue;
+				}
+				double score = signature.similarity(candidate.getValue().signature());
+				if (score >= bestScore) {
+					best = candidate.getKey();
+					bestScore = score;
+				}
+			}
+			if (candidates.isEmpty()) {
+				byContext.remove(key.contextHash());
+			}
+			if (best != null) {
+				similarHits.increment();
+				log.debug("Near-duplicate cache hit (similarity {})", bestScore);
+				return Optional.of(entries.get(best).response());
+			}
+		}
+
+		misses.increment();
+		return Optional.empty();
+	}
+
+	public synchronized void put(CacheKey key, String response) {
+		if (!enabled || response == null) {
+			return;
+		}
+		PromptSignature signature = (similarityThreshold < 1.0) ? PromptSignature.of(key.prompt()) : null;
+		Entry entry = new Entry(response, System.currentTimeMillis() + ttlMillis, signature);
+		entries.put(key, entry);
+		byContext.computeIfAbsent(key.contextHash(), k -> new HashMap<>()).put(key, entry);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void unindex(CacheKey key) {
+		Map<CacheKey, Entry> keys = byContext.get(key.contextHash());
+		if (keys != null && keys.remove(key) != null && keys.isEmpty()) {
+			byContext.remove(key.contextHash());
+		}
+	}
+
+	private static String normalize(String text) {
+		return (text == null) ? "" : text.strip().replaceAll("\\s+", " ");
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		// Separator, so ("ab", "c") and ("a", "bc") hash differently
+		digest.update((byte) 0);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * @param contextHash hash of model, sampling parameters, system prompt and history
+	 * @param prompt      the normalized new prompt
+	 */
+	public record CacheKey(String contextHash, String prompt) {
+	}
+
+	private record Entry(String response, long expiresAt, PromptSignature signature) {
+	}
+}
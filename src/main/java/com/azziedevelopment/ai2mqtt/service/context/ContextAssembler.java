@@ -0,0 +1,114 @@
+package com.azziedevelopment.ai2mqtt.service.context;
+
+import com.azziedevelopment.ai2mqtt.model.ConversationSummary;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the {@code messages} array for a completion request within a token budget.
+ * <p>
+ * The budget is the model's context window minus the tokens reserved for the answer
+ * ({@code maxTokens}), the system prompt and the new prompt. The newest turns are kept
+ * until the budget runs out. When summaries are enabled, the turns that fell out of the
+ * window are represented by the thread's rolling summary instead of being lost entirely.
+ */
+@Slf4j
+@Component
+public class ContextAssembler {
+
+	private static final String SUMMARY_HEADER = "\n\nSummary of the earlier conversation:\n";
+
+	private final ConversationSummarizer summarizer;
+	private final int contextWindow;
+	private final boolean summaryEnabled;
+	private final int summaryBatchTurns;
+
+	private final DistributionSummary promptTokens;
+	private final Counter droppedTurns;
+
+	public ContextAssembler(ConversationSummarizer summarizer,
+	                        MeterRegistry meterRegistry,
+	                        @Value("${context.window.max-tokens:8192}") int contextWindow,
+	                        @Value("${context.summary.enabled:false}") boolean summaryEnabled,
+	                        @Value("${context.summary.batch-turns:4}") int summaryBatchTurns) {
+		this.summarizer = summarizer;
+		this.contextWindow = contextWindow;
+		this.summaryEnabled = summaryEnabled;
+		this.summaryBatchTurns = Math.max(1, summaryBatchTurns);
+
+		this.promptTokens = DistributionSummary.builder("ai2mqtt.context.tokens")
+			.description("Estimated prompt tokens sent per request")
+			.baseUnit("tokens")
+			.register(meterRegistry);
+		this.droppedTurns = Counter.builder("ai2mqtt.context.turns.dropped")
+			.description("Historical turns left out of a request to stay within the token budget")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * @param history   the thread's completed turns as alternating user/assistant messages, oldest first
+	 * @param maxTokens tokens reserved for the model's answer
+	 */
+	public List<Map<String, String>> assemble(String threadId, String systemPrompt,
+	                                          List<Map<String, String>> history,
+	                                          String promptText, int maxTokens) {
+		int turns = history.size() / 2;
+		int fixedCost = TokenEstimator.estimate(systemPrompt) + TokenEstimator.estimate(promptText) + 8;
+		int budget = contextWindow - maxTokens - fixedCost;
+
+		int firstTurn = turns - fit(history, budget);
+		String system = systemPrompt;
+
+		if (firstTurn > 0 && summaryEnabled) {
+			// Make room for the summary itself, then see what it already covers
+			firstTurn = turns - fit(history, budget - summarizer.getSummaryMaxTokens());
+			ConversationSummary summary = summarizer.current(threadId);
+
+			if (summary.getSummary() != null) {
+				system = systemPrompt + SUMMARY_HEADER + summary.getSummary();
+				// Never repeat turns the summary already describes
+				firstTurn = Math.min(turns, Math.max(firstTurn, summary.getCoveredTurns()));
+			}
+			if (firstTurn - summary.getCoveredTurns() >= summaryBatchTurns) {
+				summarizer.requestRefresh(threadId, history, firstTurn);
+			}
+		}
+
+		List<Map<String, String>> messages = new ArrayList<>((turns - firstTurn) * 2 + 2);
+		messages.add(Map.of("role", "system", "content", system));
+		messages.addAll(history.subList(firstTurn * 2, turns * 2));
+		messages.add(Map.of("role", "user", "content", promptText));
+
+		if (firstTurn > 0) {
+			droppedTurns.increment(firstTurn);
+			log.debug("Context window [Thread: {}]: kept {} of {} turns", threadId, turns - firstTurn, turns);
+		}
+		promptTokens.record(TokenEstimator.estimate(messages));
+		return messages;
+	}
+
+	/**
+	 * How many of the newest turns fit into {@code budget} tokens.
+	 */
+	private static int fit(List<Map<String, String>> history, int budget) {
+		int kept = 0;
+		int used = 0;
+		for (int i = history.size() - 2; i >= 0; i -= 2) {
+			int cost = TokenEstimator.estimate(history.get(i)) + TokenEstimator.estimate(history.get(i + 1));
+			if (used + cost > budget) {
+				break;
+			}
+			used += cost;
+			kept++;
+		}
+		return kept;
+	}
+}
@@ -0,0 +1,162 @@
+package com.azziedevelopment.ai2mqtt.service.context;
+
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import com.azziedevelopment.ai2mqtt.model.ConversationRepository;
+import com.azziedevelopment.ai2mqtt.service.archive.ConversationArchive;
+import com.azziedevelopment.ai2mqtt.service.persistence.ConversationWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the prebuilt chat history ("user"/"assistant" message pairs) of recently active threads
+ * in memory, so a warm thread never has to re-read its CLOBs from H2.
+ * <p>
+ * Entries are evicted least-recently-used first once the total amount of cached text exceeds
+ * {@code context.cache.max-chars}. Completed turns are written through via {@link #append};
+ * a thread that is not cached is simply loaded from the database (or the archive) the next time it is needed.
+ */
+@Slf4j
+@Component
+public class ConversationContextCache {
+
+	private final ConversationRepository repository;
+	private final ConversationWriter conversationWriter;
+	private final ConversationArchive archive;
+	private final long maxChars;
+
+	// Access-ordered, so iteration starts at the least recently used thread
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long totalChars;
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter evictions;
+
+	public ConversationContextCache(ConversationRepository repository,
+	                                ConversationWriter conversationWriter,
+	                                ConversationArchive archive,
+	                                MeterRegistry meterRegistry,
+	                                @Value("${context.cache.max-chars:4000000}") long maxChars) {
+		this.repository = repository;
+		this.conversationWriter = conversationWriter;
+		this.archive = archive;
+		this.maxChars = maxChars;
+
+		this.hits = Counter.builder("ai2mqtt.context.cache.requests").tag("result", "hit").register(meterRegistry);
+		this.misses = Counter.builder("ai2mqtt.context.cache.requests").tag("result", "miss").register(meterRegistry);
+		this.evictions = Counter.builder("ai2mqtt.context.cache.evictions").register(meterRegistry);
+		Gauge.builder("ai2mqtt.context.cache.threads", this, ConversationContextCache::size)
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.context.cache.chars", this, ConversationContextCache::chars)
+			.description("Characters of message text currently cached")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Returns the thread's completed turns as chat messages, oldest first.
+	 * The returned list is immutable and safe to share.
+	 */
+	public List<Map<String, String>> history(String threadId) {
+		synchronized (this) {
+			Entry entry = entries.get(threadId);
+			if (entry != null) {
+				hits.increment();
+				return entry.messages();
+			}
+		}
+
+		misses.increment();
+		List<Map<String, String>> messages = load(threadId);
+
+		synchronized (this) {
+			put(threadId, new Entry(messages, weigh(messages)));
+		}
+		return messages;
+	}
+
+	/**
+	 * Write-through for a turn that just reached COMPLETED.
+	 * Cold threads are left alone; they will be loaded (including this turn) on next use.
+	 */
+	public synchronized void append(String threadId, String prompt, String response) {
+		Entry entry = entries.get(threadId);
+		if (entry == null) {
+			return;
+		}
+		if (response == null) {
+			response = "";
+		}
+
+		List<Map<String, String>> messages = new ArrayList<>(entry.messages().size() + 2);
+		messages.addAll(entry.messages());
+		messages.add(Map.of("role", "user", "content", prompt));
+		messages.add(Map.of("role", "assistant", "content", response));
+
+		put(threadId, new Entry(Collections.unmodifiableList(messages),
+			entry.chars() + prompt.length() + response.length()));
+	}
+
+	public synchronized void evict(String threadId) {
+		Entry removed = entries.remove(threadId);
+		if (removed != null) {
+			totalChars -= removed.chars();
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long chars() {
+		return totalChars;
+	}
+
+	private List<Map<String, String>> load(String threadId) {
+		// An archived thread that resumes is moved back into the table first
+		archive.rehydrate(threadId);
+		// A turn of this thread may still be sitting in the write-behind buffer
+		conversationWriter.flush();
+		List<ConversationPair> history = repository.findByThreadIdAndStatusOrderByTimestampAsc(threadId, "COMPLETED");
+		List<Map<String, String>> messages = new ArrayList<>(history.size() * 2);
+		for (ConversationPair msg : history) {
+			messages.add(Map.of("role", "user", "content", msg.getPrompt()));
+			messages.add(Map.of("role", "assistant", "content", (msg.getResponse() != null ? msg.getResponse() : "")));
+		}
+		return Collections.unmodifiableList(messages);
+	}
+
+	// Caller must hold the monitor
+	private void put(String threadId, Entry entry) {
+		Entry previous = entries.put(threadId, entry);
+		totalChars += entry.chars() - (previous != null ? previous.chars() : 0);
+
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (totalChars > maxChars && eldest.hasNext()) {
+			totalChars -= eldest.next().chars();
+			eldest.remove();
+			evictions.increment();
+		}
+	}
+
+	private static long weigh(List<Map<String, String>> messages) {
+		long chars = 0;
+		for (Map<String, String> message : messages) {
+			chars += message.get("content").length();
+		}
+		return chars;
+	}
+
+	private record Entry(List<Map<String, String>> messages, long chars) {
+	}
+}
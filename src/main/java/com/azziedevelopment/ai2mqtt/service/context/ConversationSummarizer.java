@@ -0,0 +1,140 @@
+package com.azziedevelopment.ai2mqtt.service.context;
+
+import com.azziedevelopment.ai2mqtt.model.ConversationSummary;
+import com.azziedevelopment.ai2mqtt.model.ConversationSummaryRepository;
+import com.azziedevelopment.ai2mqtt.service.OpenAIService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Maintains the rolling summary of each long thread.
+ * Summaries are produced in the background so a prompt never waits for one;
+ * until a refresh lands, the previous summary (or none) is used.
+ */
+@Slf4j
+@Service
+public class ConversationSummarizer {
+
+	private static final int CACHED_SUMMARIES = 1000;
+
+	private final ConversationSummaryRepository repository;
+	private final OpenAIService aiService;
+	private final int summaryMaxTokens;
+	private final String instructions;
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+	// Small LRU so long threads don't hit H2 for their summary on every prompt
+	private final Map<String, ConversationSummary> cache = new LinkedHashMap<>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ConversationSummary> eldest) {
+			return size() > CACHED_SUMMARIES;
+		}
+	};
+
+	public ConversationSummarizer(ConversationSummaryRepository repository,
+	                              @Lazy OpenAIService aiService,
+	                              @Value("${context.summary.max-tokens:300}") int summaryMaxTokens,
+	                              @Value("${context.summary.instructions:Summarize the conversation so far in a few sentences. Keep names, facts, decisions and open questions. Reply with the summary only.}") String instructions) {
+		this.repository = repository;
+		this.aiService = aiService;
+		this.summaryMaxTokens = summaryMaxTokens;
+		this.instructions = instructions;
+	}
+
+	public int getSummaryMaxTokens() {
+		return summaryMaxTokens;
+	}
+
+	/**
+	 * The latest summary for the thread. Never null; {@code summary} is null if none exists yet.
+	 */
+	public ConversationSummary current(String threadId) {
+		synchronized (cache) {
+			ConversationSummary cached = cache.get(threadId);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		ConversationSummary loaded = repository.findById(threadId)
+			.orElseGet(() -> ConversationSummary.builder().threadId(threadId).coveredTurns(0).build());
+		synchronized (cache) {
+			cache.putIfAbsent(threadId, loaded);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Asks for the summary to be extended so it covers the first {@code upToTurn} turns of {@code history}.
+	 * Returns immediately; at most one refresh per thread runs at a time.
+	 */
+	public void requestRefresh(String threadId, List<Map<String, String>> history, int upToTurn) {
+		if (!inFlight.add(threadId)) {
+			return;
+		}
+		executor.execute(() -> {
+			try {
+				refresh(threadId, history, upToTurn);
+			} catch (Exception e) {
+				log.warn("Summary refresh failed [Thread: {}]: {}", threadId, e.getMessage());
+			} finally {
+				inFlight.remove(threadId);
+			}
+		});
+	}
+
+	private void refresh(String threadId, List<Map<String, String>> history, int upToTurn) {
+		ConversationSummary previous = current(threadId);
+		int from = previous.getCoveredTurns();
+		if (upToTurn <= from) {
+			return;
+		}
+
+		StringBuilder transcript = new StringBuilder();
+		if (previous.getSummary() != null) {
+			transcript.append("Summary so far:\n").append(previous.getSummary()).append("\n\nNew turns:\n");
+		}
+		for (int turn = from; turn < upToTurn; turn++) {
+			transcript.append("User: ").append(history.get(turn * 2).get("content")).append('\n');
+			transcript.append("Assistant: ").append(history.get(turn * 2 + 1).get("content")).append('\n');
+		}
+
+		List<Map<String, String>> messages = new ArrayList<>(2);
+		messages.add(Map.of("role", "system", "content", instructions));
+		messages.add(Map.of("role", "user", "content", transcript.toString()));
+
+		String text = aiService.complete(messages, summaryMaxTokens);
+
+		ConversationSummary updated = ConversationSummary.builder()
+			.threadId(threadId)
+			.summary(text)
+			.coveredTurns(upToTurn)
+			.updatedAt(LocalDateTime.now())
+			.build();
+		repository.save(updated);
+		synchronized (cache) {
+			cache.put(threadId, updated);
+		}
+		log.debug("Summary refreshed [Thread: {}] now covers {} turns", threadId, upToTurn);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,34 @@
+package com.azziedevelopment.ai2mqtt.service.context;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cheap, tokenizer-free token estimate. English text averages about four characters
+ * per token for the GPT and Gemini tokenizers, and every chat message carries a few
+ * tokens of role/framing overhead. Good enough for budgeting, not for billing.
+ */
+public final class TokenEstimator {
+
+	private static final int CHARS_PER_TOKEN = 4;
+	private static final int MESSAGE_OVERHEAD = 4;
+
+	private TokenEstimator() {
+	}
+
+	public static int estimate(String text) {
+		return (text == null) ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+	}
+
+	public static int estimate(Map<String, String> message) {
+		return MESSAGE_OVERHEAD + estimate(message.get("content"));
+	}
+
+	public static int estimate(List<Map<String, String>> messages) {
+		int tokens = 0;
+		for (Map<String, String> message : messages) {
+			tokens += estimate(message);
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,22 @@
+package com.azziedevelopment.ai2mqtt.service.dispatch;
+
+import java.time.Instant;
+
+/**
+ * What the broker told us about how a prompt was delivered.
+ *
+ * @param redelivered the broker flagged the prompt as possibly delivered before (JMSRedelivered, MQTT DUP),
+ *                    so it is looked up among the stored answers even after a restart
+ * @param sentAt      when the requester sent it (JMSTimestamp), or null if unknown; the prompt's age counts
+ *                    from here rather than from when it reached us
+ * @param expiresAt   when the requester stops waiting for it (JMSExpiration, MQTT 5 Message Expiry), or null
+ */
+public record Delivery(boolean redelivered, Instant sentAt, Instant expiresAt) {
+
+	/** A first delivery with nothing known but its arrival. */
+	public static final Delivery FIRST = new Delivery(false, null, null);
+
+	public static Delivery of(boolean redelivered) {
+		return redelivered ? new Delivery(true, null, null) : FIRST;
+	}
+}
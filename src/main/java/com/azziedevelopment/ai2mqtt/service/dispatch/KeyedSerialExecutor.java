@@ -0,0 +1,82 @@
+package com.azziedevelopment.ai2mqtt.service.dispatch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks that share a key strictly one after another, in submission order,
+ * while tasks with different keys run in parallel on the delegate executor.
+ * <p>
+ * Each key gets a "lane". The first task in an idle lane schedules a drain on the delegate;
+ * later tasks just join the lane and are picked up by that same drain when their turn comes.
+ * Empty lanes are removed, so memory only grows with the number of busy keys.
+ */
+@Slf4j
+public class KeyedSerialExecutor {
+
+	private final Executor delegate;
+	private final ConcurrentHashMap<String, Deque<Runnable>> lanes = new ConcurrentHashMap<>();
+
+	public KeyedSerialExecutor(Executor delegate) {
+		this.delegate = delegate;
+	}
+
+	public void execute(String key, Runnable task) {
+		boolean[] idle = new boolean[1];
+		lanes.compute(key, (k, lane) -> {
+			if (lane == null) {
+				lane = new ArrayDeque<>();
+				idle[0] = true;
+			}
+			lane.addLast(task);
+			return lane;
+		});
+
+		if (idle[0]) {
+			delegate.execute(() -> drain(key));
+		}
+	}
+
+	/**
+	 * Number of keys that currently have a running or waiting task.
+	 */
+	public int activeKeys() {
+		return lanes.size();
+	}
+
+	private void drain(String key) {
+		Runnable next = head(key);
+		while (next != null) {
+			try {
+				next.run();
+			} catch (RuntimeException e) {
+				log.error("Task failed in lane [Key: {}]", key, e);
+			}
+			next = advance(key);
+		}
+	}
+
+	// The lane deques are only ever touched inside compute calls, which lock the map bin
+	private Runnable head(String key) {
+		Runnable[] head = new Runnable[1];
+		lanes.computeIfPresent(key, (k, lane) -> {
+			head[0] = lane.peekFirst();
+			return lane;
+		});
+		return head[0];
+	}
+
+	private Runnable advance(String key) {
+		Runnable[] next = new Runnable[1];
+		lanes.computeIfPresent(key, (k, lane) -> {
+			lane.pollFirst();
+			next[0] = lane.peekFirst();
+			return lane.isEmpty() ? null : lane;
+		});
+		return next[0];
+	}
+}
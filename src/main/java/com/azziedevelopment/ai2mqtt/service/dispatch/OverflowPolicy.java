@@ -0,0 +1,25 @@
+package com.azziedevelopment.ai2mqtt.service.dispatch;
+
+import java.util.Locale;
+
+/**
+ * What the dispatcher does with a new prompt when its queue is already full.
+ */
+public enum OverflowPolicy {
+
+	/** Drop the new prompt and log it. */
+	REJECT,
+
+	/** Evict the oldest queued prompt to make room for the new one. */
+	DROP_OLDEST,
+
+	/** Drop the new prompt, but tell the caller we are busy via the messaging grid. */
+	BUSY_RESPONSE;
+
+	/**
+	 * Parses the property value, accepting both "drop-oldest" and "DROP_OLDEST" styles.
+	 */
+	public static OverflowPolicy from(String value) {
+		return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+	}
+}
@@ -0,0 +1,97 @@
+package com.azziedevelopment.ai2mqtt.service.dispatch;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A counting semaphore that hands freed permits to the highest-priority waiter first
+ * (first come, first served within the same priority). Replaces a fair {@code Semaphore},
+ * which could only serve waiters in arrival order.
+ */
+class PriorityPermits {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+	private int available;
+	private long sequence;
+
+	PriorityPermits(int permits) {
+		this.available = permits;
+	}
+
+	void acquire(int priority) throws InterruptedException {
+		lock.lock();
+		try {
+			if (available > 0 && waiters.isEmpty()) {
+				available--;
+				return;
+			}
+			Waiter me = new Waiter(priority, sequence++, lock.newCondition());
+			waiters.add(me);
+			try {
+				while (!me.granted) {
+					me.signal.await();
+				}
+			} catch (InterruptedException e) {
+				if (me.granted) {
+					// Handed a permit at the same moment: pass it on rather than leak it
+					grantNext();
+				} else {
+					waiters.remove(me);
+				}
+				throw e;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void release() {
+		lock.lock();
+		try {
+			grantNext();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int waiting() {
+		lock.lock();
+		try {
+			return waiters.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void grantNext() {
+		Waiter next = waiters.poll();
+		if (next == null) {
+			available++;
+		} else {
+			next.granted = true;
+			next.signal.signal();
+		}
+	}
+
+	private static final class Waiter implements Comparable<Waiter> {
+		final int priority;
+		final long sequence;
+		final Condition signal;
+		boolean granted;
+
+		Waiter(int priority, long sequence, Condition signal) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.signal = signal;
+		}
+
+		@Override
+		public int compareTo(Waiter other) {
+			// Higher priority first, then arrival order
+			int byPriority = Integer.compare(other.priority, priority);
+			return (byPriority != 0) ? byPriority : Long.compare(sequence, other.sequence);
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package com.azziedevelopment.ai2mqtt.service.dispatch;
+
+import com.azziedevelopment.ai2mqtt.config.DispatchProperties;
+import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.azziedevelopment.ai2mqtt.service.MessagingRouter;
+import com.azziedevelopment.ai2mqtt.service.OpenAIService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sits between the inbound adapters (MQTT and ActiveMQ) and {@link OpenAIService}.
+ * Accepted prompts run on virtual threads, but only {@code dispatch.max-concurrency}
+ * of them may talk to the AI backend at once. Everything else waits in a bounded queue,
+ * and the configured {@link OverflowPolicy} decides what happens when that queue is full.
+ * <p>
+ * Prompts sharing a {@code threadId} are processed strictly in arrival order, so each one
+ * sees the history saved by the one before it. Different threads still run in parallel.
+ * <p>
+ * When a slot frees up it goes to the waiting prompt with the highest {@code priority}
+ * (0-9, default {@code dispatch.default-priority}), so a voice request overtakes queued bulk jobs.
+ * <p>
+ * With several transports active, {@code dispatch.transport-concurrency.<transport>} caps how many of the shared
+ * slots one transport's prompts may hold, so a backlog on ActiveMQ can't starve Home Assistant on MQTT.
+ * <p>
+ * A prompt older than {@code dispatch.max-age} is stale: it is dropped instead of being sent once it gets a slot,
+ * and the backend call is not retried past that point. Its age counts from when the requester sent it where the
+ * broker says so (JMSTimestamp), otherwise from when it arrived here; an earlier expiry set by the requester
+ * (JMSExpiration, MQTT 5 Message Expiry) wins.
+ */
+@Slf4j
+@Service
+public class PromptDispatcher {
+
+	private static final int MAX_PRIORITY = 9;
+
+	private final OpenAIService aiService;
+	private final MessagingRouter messagingRouter;
+
+	private final int queueCapacity;
+	private final OverflowPolicy overflowPolicy;
+	private final String busyResponse;
+	private final int defaultPriority;
+	private final boolean idempotent;
+	private final Duration maxAge;
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final KeyedSerialExecutor threadLanes = new KeyedSerialExecutor(executor);
+	private final PriorityPermits permits;
+	// Only transports with a configured budget have an entry
+	private final Map<String, PriorityPermits> transportPermits = new HashMap<>();
+	private final Deque<PromptTask> waiting = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	// Ids accepted and not yet finished, to ignore redeliveries of a prompt that is still being worked on
+	private final Set<String> inFlightIds = ConcurrentHashMap.newKeySet();
+
+	// Per transport, one timer per priority; registered on the transport's first prompt
+	private final Map<String, Timer[]> queueWait = new ConcurrentHashMap<>();
+	private final MeterRegistry meterRegistry;
+	private final Counter overflowCounter;
+	private final Counter expiredCounter;
+
+	public PromptDispatcher(OpenAIService aiService,
+	                        @Lazy MessagingRouter messagingRouter,
+	                        DispatchProperties properties,
+	                        MeterRegistry meterRegistry,
+	                        @Value("${dispatch.max-concurrency:4}") int maxConcurrency,
+	                        @Value("${dispatch.queue-capacity:100}") int queueCapacity,
+	                        @Value("${dispatch.overflow-policy:reject}") String overflowPolicy,
+	                        @Value("${dispatch.default-priority:5}") int defaultPriority,
+	                        @Value("${dispatch.idempotency-window:1h}") Duration idempotencyWindow,
+	                        @Value("${dispatch.max-age:5m}") Duration maxAge,
+	                        @Value("${dispatch.busy-response:The assistant is busy right now. Please try again shortly.}") String busyResponse) {
+
+		this.aiService = aiService;
+		this.messagingRouter = messagingRouter;
+		this.queueCapacity = queueCapacity;
+		this.overflowPolicy = OverflowPolicy.from(overflowPolicy);
+		this.busyResponse = busyResponse;
+		this.defaultPriority = clampPriority(defaultPriority);
+		this.idempotent = !idempotencyWindow.isZero();
+		this.maxAge = maxAge;
+		this.meterRegistry = meterRegistry;
+
+		// Highest priority first; arrival order within a priority
+		this.permits = new PriorityPermits(maxConcurrency);
+		properties.transportConcurrency().forEach((transport, budget) ->
+			transportPermits.put(transport, new PriorityPermits(Math.clamp(budget, 1, maxConcurrency))));
+
+		Gauge.builder("ai2mqtt.dispatch.queue.depth", queued, AtomicInteger::get)
+			.description("Prompts accepted but not yet sent to the AI backend")
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.dispatch.active", active, AtomicInteger::get)
+			.description("Prompts currently being processed")
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.dispatch.threads", threadLanes, KeyedSerialExecutor::activeKeys)
+			.description("Conversation threads with a running or waiting prompt")
+			.register(meterRegistry);
+		transportPermits.forEach((transport, budget) ->
+			Gauge.builder("ai2mqtt.dispatch.transport.waiting", budget, PriorityPermits::waiting)
+				.description("Prompts waiting because their transport used up its share of the slots")
+				.tag("transport", transport)
+				.register(meterRegistry));
+		this.overflowCounter = Counter.builder("ai2mqtt.dispatch.overflow")
+			.description("Prompts turned away or evicted because the queue was full")
+			.tag("policy", this.overflowPolicy.name().toLowerCase(Locale.ROOT))
+			.register(meterRegistry);
+		this.expiredCounter = Counter.builder("ai2mqtt.dispatch.expired")
+			.description("Prompts dropped because they were older than dispatch.max-age when their turn came")
+			.register(meterRegistry);
+
+		log.info("Prompt Dispatcher Initialized (Concurrency: {}, Queue: {}, Overflow: {}, Transport budgets: {})",
+			maxConcurrency, queueCapacity, this.overflowPolicy, properties.transportConcurrency());
+	}
+
+	/**
+	 * Accepts a prompt from an inbound adapter and returns immediately.
+	 * The caller's thread (e.g. the Paho callback) never waits for the AI.
+	 */
+	public void submit(AIRequest request) {
+		submit(request, null, () -> {
+		});
+	}
+
+	public void submit(AIRequest request, String transport, Runnable onComplete) {
+		submit(request, transport, Delivery.FIRST, onComplete);
+	}
+
+	/**
+	 * @param transport   the transport the prompt arrived on (e.g. {@code mqtt}), which the response
+	 *                    is sent back over; null for the default transport
+	 * @param delivery    redelivery flag, send time and expiry as reported by the broker
+	 * @param onComplete  runs exactly once when the prompt leaves the dispatcher: processed, rejected or evicted.
+	 *                    Lets an adapter hold back its broker acknowledgement until then.
+	 */
+	public void submit(AIRequest request, String transport, Delivery delivery, Runnable onComplete) {
+		if (request.id() == null) {
+			request = request.withId(UUID.randomUUID().toString());
+		}
+		// Assigned here rather than in OpenAIService so it can serve as the ordering key
+		if (request.threadId() == null) {
+			request = request.withThreadId(UUID.randomUUID().toString());
+		}
+		// Adapters that route replies by id have done this already; the rest rely on it here
+		request = request.withStorableIds();
+
+		if (idempotent && !inFlightIds.add(request.id())) {
+			log.info("Prompt [ID: {}] is already being processed, ignoring the redelivery", request.id());
+			onComplete.run();
+			return;
+		}
+
+		messagingRouter.bind(request.id(), transport);
+
+		if (!admit(request)) {
+			complete(request, onComplete);
+			return;
+		}
+
+		int priority = (request.priority() == null) ? defaultPriority : clampPriority(request.priority());
+		PromptTask task = new PromptTask(request, transport, priority, System.nanoTime(), deadline(delivery),
+			delivery.redelivered(), onComplete);
+		waiting.addLast(task);
+		threadLanes.execute(request.threadId(), () -> run(task));
+	}
+
+	private boolean admit(AIRequest request) {
+		if (queued.incrementAndGet() <= queueCapacity) {
+			return true;
+		}
+		queued.decrementAndGet();
+		overflowCounter.increment();
+
+		switch (overflowPolicy) {
+			case REJECT -> log.warn("Dispatch queue full, rejecting prompt [ID: {}]", request.id());
+			case BUSY_RESPONSE -> {
+				// The batch API reports the prompt as failed instead of taking the busy text for its answer
+				if (!messagingRouter.acceptsBusyResponse(request.id())) {
+					log.warn("Dispatch queue full, rejecting prompt [ID: {}]", request.id());
+				} else {
+					log.warn("Dispatch queue full, sending busy response [ID: {}]", request.id());
+					try {
+						messagingRouter.sendResponse(request.id(), request.threadId(), busyResponse);
+					} catch (Exception e) {
+						log.error("Failed to send busy response [ID: {}]", request.id(), e);
+					}
+				}
+			}
+			case DROP_OLDEST -> {
+				PromptTask oldest;
+				while ((oldest = waiting.pollFirst()) != null) {
+					if (oldest.claim()) {
+						log.warn("Dispatch queue full, dropping oldest prompt [ID: {}]", oldest.request().id());
+						complete(oldest.request(), oldest.onComplete());
+						// The evicted slot is handed straight to the new prompt
+						return true;
+					}
+				}
+				log.warn("Dispatch queue full, rejecting prompt [ID: {}]", request.id());
+			}
+		}
+		return false;
+	}
+
+	private void run(PromptTask task) {
+		// Already evicted by DROP_OLDEST while waiting in its lane
+		if (task.claimed().get()) {
+			return;
+		}
+
+		// The transport's own budget first, then a slot of the shared pool (always in this order, so no deadlock)
+		PriorityPermits budget = (task.transport() == null) ? null : transportPermits.get(task.transport());
+		try {
+			if (budget != null) {
+				budget.acquire(task.priority());
+			}
+			try {
+				permits.acquire(task.priority());
+			} catch (InterruptedException e) {
+				if (budget != null) {
+					budget.release();
+				}
+				throw e;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		try {
+			// Lost the race against DROP_OLDEST: the slot already belongs to someone else
+			if (!task.claim()) {
+				return;
+			}
+			waiting.remove(task);
+			queued.decrementAndGet();
+			Timer[] waitTimers =
+				queueWait.computeIfAbsent(messagingRouter.transportOf(task.request().id()), this::queueWaitTimers);
+			waitTimers[task.priority()].record(System.nanoTime() - task.enqueuedAt(), TimeUnit.NANOSECONDS);
+
+			if (task.deadline() != null && Instant.now().isAfter(task.deadline())) {
+				log.warn("Prompt [ID: {}] waited longer than {}, dropping it", task.request().id(), maxAge);
+				expiredCounter.increment();
+				complete(task.request(), task.onComplete());
+				return;
+			}
+
+			active.incrementAndGet();
+			try {
+				AIRequest request = task.request();
+				aiService.processPrompt(request.id(), request.threadId(), request.text(), request.systemPrompt(),
+					request.maxTokens(), request.temperature(), task.deadline(), task.redelivered());
+			} catch (Exception e) {
+				log.error("Unhandled error while processing prompt [ID: {}]", task.request().id(), e);
+			} finally {
+				active.decrementAndGet();
+				complete(task.request(), task.onComplete());
+			}
+		} finally {
+			permits.release();
+			if (budget != null) {
+				budget.release();
+			}
+		}
+	}
+
+	private Timer[] queueWaitTimers(String transport) {
+		Timer[] timers = new Timer[MAX_PRIORITY + 1];
+		for (int priority = 0; priority <= MAX_PRIORITY; priority++) {
+			timers[priority] = Timer.builder("ai2mqtt.dispatch.queue.wait")
+				.description("Time a prompt spent queued before processing started")
+				.tag("priority", Integer.toString(priority))
+				.tag("transport", transport)
+				.publishPercentiles(0.5, 0.99)
+				.register(meterRegistry);
+		}
+		return timers;
+	}
+
+	private void complete(AIRequest request, Runnable onComplete) {
+		inFlightIds.remove(request.id());
+		messagingRouter.unbind(request.id());
+		try {
+			onComplete.run();
+		} catch (Exception e) {
+			log.error("Completion callback failed [ID: {}]", request.id(), e);
+		}
+	}
+
+	private static int clampPriority(int priority) {
+		return Math.clamp(priority, 0, MAX_PRIORITY);
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+			log.warn("Dispatcher did not drain in time, abandoning {} queued prompts", queued.get());
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * When the prompt becomes stale: {@code maxAge} after it was sent (or arrived, if the broker doesn't say),
+	 * or the requester's own expiry if that comes first. Null if neither applies.
+	 */
+	private Instant deadline(Delivery delivery) {
+		Instant now = Instant.now();
+		// A sender clock ahead of ours must not extend the prompt's life
+		Instant sentAt = (delivery.sentAt() == null || delivery.sentAt().isAfter(now)) ? now : delivery.sentAt();
+		Instant deadline = maxAge.isZero() ? null : sentAt.plus(maxAge);
+		if (delivery.expiresAt() != null && (deadline == null || delivery.expiresAt().isBefore(deadline))) {
+			deadline = delivery.expiresAt();
+		}
+		return deadline;
+	}
+
+	/**
+	 * @param deadline when the prompt becomes stale, or null if it never does
+	 */
+	private record PromptTask(AIRequest request, String transport, int priority, long enqueuedAt, Instant deadline,
+	                          boolean redelivered, Runnable onComplete, AtomicBoolean claimed) {
+
+		PromptTask(AIRequest request, String transport, int priority, long enqueuedAt, Instant deadline,
+		           boolean redelivered, Runnable onComplete) {
+			this(request, transport, priority, enqueuedAt, deadline, redelivered, onComplete, new AtomicBoolean());
+		}
+
+		/**
+		 * Only one of "start processing" and "evict" may ever win for a given task.
+		 */
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.azziedevelopment.ai2mqtt.service.events;
+
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Live feed for open dashboards ({@code GET /events}): every state a turn passes through (PENDING, COMPLETED,
+ * FAILED) and every streamed chunk, as server-sent events. Events carry the row itself, so subscribers add
+ * no database load.
+ * <p>
+ * Publishing never blocks the pipeline and takes no lock. Each event is serialized once and offered to every
+ * subscriber's own queue. A virtual thread per subscriber writes it out. A subscriber that falls more than
+ * {@code dashboard.events.queue-capacity} events behind loses its backlog and gets a {@code resync} event
+ * instead, telling the page to reload what it shows.
+ */
+@Slf4j
+@Component
+public class DashboardEvents {
+
+	private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+	private final ObjectMapper objectMapper;
+	private final int queueCapacity;
+	private final Duration timeout;
+
+	// Copy-on-write: publishing iterates a snapshot without locking; (un)subscribing is rare
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	private final Counter dropped;
+
+	public DashboardEvents(ObjectMapper objectMapper,
+	                       MeterRegistry meterRegistry,
+	                       @Value("${dashboard.events.queue-capacity:1000}") int queueCapacity,
+	                       @Value("${dashboard.events.timeout:30m}") Duration timeout) {
+		this.objectMapper = objectMapper;
+		this.queueCapacity = queueCapacity;
+		this.timeout = timeout;
+
+		Gauge.builder("ai2mqtt.dashboard.subscribers", subscribers, List::size).register(meterRegistry);
+		this.dropped = Counter.builder("ai2mqtt.dashboard.events.dropped")
+			.description("Events not delivered because a dashboard fell too far behind")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Opens a feed; the browser's EventSource reconnects by itself once it times out.
+	 */
+	public SseEmitter subscribe() {
+		SseEmitter emitter = new SseEmitter(timeout.toMillis());
+		Subscriber subscriber = new Subscriber(emitter);
+		emitter.onCompletion(subscriber::close);
+		emitter.onTimeout(subscriber::close);
+		emitter.onError(e -> subscriber.close());
+		subscribers.add(subscriber);
+		subscriber.writer.start();
+		return emitter;
+	}
+
+	public void turn(ConversationPair pair) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		publish("turn", new TurnEvent(pair.getId(), pair.getThreadId(), pair.getStatus(), pair.getPrompt(),
+			pair.getResponse(), (pair.getTimestamp() != null) ? pair.getTimestamp().toString() : null,
+			Boolean.TRUE.equals(pair.getCached())));
+	}
+
+	public void chunk(String correlationId, String threadId, int sequence, String text, boolean done) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		publish("chunk", new ChunkEvent(correlationId, threadId, sequence, text, done));
+	}
+
+	private void publish(String name, Object payload) {
+		String json;
+		try {
+			json = objectMapper.writeValueAsString(payload);
+		} catch (JsonProcessingException e) {
+			log.warn("Could not serialize dashboard event {}", name, e);
+			return;
+		}
+		Event event = new Event(name, json);
+		for (Subscriber subscriber : subscribers) {
+			subscriber.offer(event);
+		}
+	}
+
+	private record Event(String name, String json) {
+	}
+
+	/**
+	 * @param timestamp ISO local date-time
+	 */
+	record TurnEvent(String id, String threadId, String status, String prompt, String response, String timestamp,
+	                 boolean cached) {
+	}
+
+	/**
+	 * @param text the new text since the previous chunk, or the full answer when {@code done}
+	 */
+	record ChunkEvent(String id, String threadId, int sequence, String text, boolean done) {
+	}
+
+	private final class Subscriber {
+
+		final SseEmitter emitter;
+		final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+		final AtomicInteger size = new AtomicInteger();
+		final Thread writer;
+		volatile boolean overflowed;
+		volatile boolean closed;
+
+		Subscriber(SseEmitter emitter) {
+			this.emitter = emitter;
+			this.writer = Thread.ofVirtual().name("dashboard-events").unstarted(this::run);
+		}
+
+		void offer(Event event) {
+			if (size.incrementAndGet() > queueCapacity) {
+				size.decrementAndGet();
+				overflowed = true;
+				dropped.increment();
+			} else {
+				queue.add(event);
+			}
+			LockSupport.unpark(writer);
+		}
+
+		void run() {
+			try {
+				while (!closed) {
+					if (overflowed) {
+						overflowed = false;
+						while (queue.poll() != null) {
+							size.decrementAndGet();
+						}
+						emitter.send(SseEmitter.event().name("resync").data("{}"));
+					}
+					Event event = queue.poll();
+					if (event == null) {
+						long parked = System.nanoTime();
+						LockSupport.parkNanos(HEARTBEAT_NANOS);
+						// Nothing happened for a while: a comment keeps proxies from closing the idle stream
+						// and surfaces a client that has gone away
+						if (queue.isEmpty() && !overflowed && System.nanoTime() - parked >= HEARTBEAT_NANOS) {
+							emitter.send(SseEmitter.event().comment("ping"));
+						}
+						continue;
+					}
+					size.decrementAndGet();
+					emitter.send(SseEmitter.event().name(event.name()).data(event.json()));
+				}
+			} catch (Exception e) {
+				// Client went away
+				log.debug("Dashboard event subscriber closed: {}", e.getMessage());
+				emitter.completeWithError(e);
+			} finally {
+				close();
+			}
+		}
+
+		void close() {
+			closed = true;
+			subscribers.remove(this);
+			LockSupport.unpark(writer);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.azziedevelopment.ai2mqtt.service.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers for the stages of a prompt's trip through the bridge, registered once up front so recording
+ * is a lookup and an add. Stages measured elsewhere: queue wait ({@code ai2mqtt.dispatch.queue.wait}),
+ * backend first byte/total and tokens ({@code ai2mqtt.backend.*}, {@code ai2mqtt.tokens}) and
+ * persistence ({@code ai2mqtt.persistence.flush}).
+ * <p>
+ * Prompt durations carry the {@code transport} the prompt arrived on, so with several transports active each one's
+ * latency can be told apart. Their timers are registered on a transport's first prompt.
+ */
+@Component
+public class PipelineMetrics {
+
+	public enum Stage {
+		/** Adapter turning an inbound payload into an AIRequest */
+		PARSE,
+		/** Conversation history from the context cache (or H2 on a miss) */
+		HISTORY,
+		/** Trimming/summarizing the history into the token budget */
+		CONTEXT,
+		/** Handing the response to the broker */
+		PUBLISH
+	}
+
+	public enum Outcome {
+		COMPLETED, CACHED, FAILED,
+		/** Redelivered prompt that was already answered; the stored answer is published again */
+		DUPLICATE
+	}
+
+	private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+	// Per transport: a handful of entries, fixed once each transport has seen a prompt
+	private final Map<String, Map<Outcome, Timer>> prompts = new ConcurrentHashMap<>();
+	private final MeterRegistry meterRegistry;
+
+	public PipelineMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		for (Stage stage : Stage.values()) {
+			stages.put(stage, Timer.builder("ai2mqtt.pipeline.stage")
+				.tag("stage", stage.name().toLowerCase(Locale.ROOT))
+				.register(meterRegistry));
+		}
+	}
+
+	/**
+	 * @param startNanos a {@link System#nanoTime()} taken when the stage began
+	 */
+	public void record(Stage stage, long startNanos) {
+		stages.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param transport the transport the prompt arrived on (e.g. {@code mqtt})
+	 */
+	public void record(Outcome outcome, String transport, long startNanos) {
+		prompts.computeIfAbsent(transport, this::promptTimers).get(outcome)
+			.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private Map<Outcome, Timer> promptTimers(String transport) {
+		Map<Outcome, Timer> timers = new EnumMap<>(Outcome.class);
+		for (Outcome outcome : Outcome.values()) {
+			timers.put(outcome, Timer.builder("ai2mqtt.prompt.duration")
+				.description("From dequeue to response published (or failure recorded)")
+				.tag("status", outcome.name().toLowerCase(Locale.ROOT))
+				.tag("transport", transport)
+				.publishPercentileHistogram()
+				.register(meterRegistry));
+		}
+		return timers;
+	}
+}
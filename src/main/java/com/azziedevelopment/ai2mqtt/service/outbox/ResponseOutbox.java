@@ -0,0 +1,155 @@
+package com.azziedevelopment.ai2mqtt.service.outbox;
+
+import com.azziedevelopment.ai2mqtt.model.OutboxMessage;
+import com.azziedevelopment.ai2mqtt.model.OutboxRepository;
+import com.azziedevelopment.ai2mqtt.service.MessagingRouter;
+import com.azziedevelopment.ai2mqtt.service.ReplyAddress;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers responses at least once.
+ * <p>
+ * {@link #deliver} publishes straight away. If that fails (broker down, publish not confirmed), the response
+ * is saved to the {@code response_outbox} table and a background publisher retries it with exponential backoff,
+ * across restarts too, until it goes through or {@code outbox.max-attempts} is reached.
+ */
+@Slf4j
+@Component
+public class ResponseOutbox {
+
+	private final MessagingRouter messagingRouter;
+	private final OutboxRepository repository;
+
+	private final Duration initialBackoff;
+	private final Duration maxBackoff;
+	private final int maxAttempts;
+
+	private final ScheduledExecutorService publisher =
+		Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("outbox-publisher").factory());
+
+	private final Counter deferred;
+	private final Counter redelivered;
+	private final Counter abandoned;
+
+	public ResponseOutbox(@Lazy MessagingRouter messagingRouter,
+	                      OutboxRepository repository,
+	                      MeterRegistry meterRegistry,
+	                      @Value("${outbox.poll-interval:5s}") Duration pollInterval,
+	                      @Value("${outbox.initial-backoff:2s}") Duration initialBackoff,
+	                      @Value("${outbox.max-backoff:5m}") Duration maxBackoff,
+	                      @Value("${outbox.max-attempts:50}") int maxAttempts) {
+		this.messagingRouter = messagingRouter;
+		this.repository = repository;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.maxAttempts = maxAttempts;
+
+		this.deferred = Counter.builder("ai2mqtt.outbox.deferred")
+			.description("Responses whose first publish failed and were queued for retry")
+			.register(meterRegistry);
+		this.redelivered = Counter.builder("ai2mqtt.outbox.redelivered").register(meterRegistry);
+		this.abandoned = Counter.builder("ai2mqtt.outbox.abandoned").register(meterRegistry);
+		Gauge.builder("ai2mqtt.outbox.pending", repository, OutboxRepository::countByNextAttemptAtIsNotNull)
+			.register(meterRegistry);
+
+		long interval = pollInterval.toMillis();
+		publisher.scheduleWithFixedDelay(this::drain, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public void deliver(String correlationId, String threadId, String response) {
+		try {
+			messagingRouter.sendResponse(correlationId, threadId, response);
+		} catch (Exception e) {
+			log.warn("Publish failed, queuing response for retry [ID: {}]: {}", correlationId, e.getMessage());
+			deferred.increment();
+			LocalDateTime now = LocalDateTime.now();
+			// Kept with the row: the adapter forgets it after an hour, and on a restart
+			ReplyAddress replyAddress = messagingRouter.replyAddressOf(correlationId);
+			repository.save(OutboxMessage.builder()
+				.id(correlationId)
+				.threadId(threadId)
+				.transport(messagingRouter.transportOf(correlationId))
+				.replyTo(replyAddress != null ? replyAddress.destination() : null)
+				.replyCorrelation(replyAddress != null ? replyAddress.correlation() : null)
+				.response(response)
+				.attempts(1)
+				.createdAt(now)
+				.nextAttemptAt(now.plus(backoff(1)))
+				.lastError(truncate(e.getMessage()))
+				.build());
+		}
+	}
+
+	void drain() {
+		try {
+			List<OutboxMessage> due;
+			while (!(due = repository.findTop100ByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(LocalDateTime.now())).isEmpty()) {
+				for (OutboxMessage message : due) {
+					if (!retry(message)) {
+						// Broker still unreachable: leave the rest for the next round
+						return;
+					}
+				}
+			}
+		} catch (Exception e) {
+			log.error("Outbox drain failed", e);
+		}
+	}
+
+	private boolean retry(OutboxMessage message) {
+		try {
+			ReplyAddress replyAddress = (message.getReplyTo() != null || message.getReplyCorrelation() != null)
+				? new ReplyAddress(message.getReplyTo(), message.getReplyCorrelation())
+				: null;
+			messagingRouter.sendResponse(message.getTransport(), message.getId(), message.getThreadId(),
+				message.getResponse(), replyAddress);
+			repository.delete(message);
+			redelivered.increment();
+			log.info("Delivered queued response [ID: {}] after {} attempt(s)", message.getId(), message.getAttempts() + 1);
+			return true;
+		} catch (Exception e) {
+			int attempts = message.getAttempts() + 1;
+			message.setAttempts(attempts);
+			message.setLastError(truncate(e.getMessage()));
+			if (attempts >= maxAttempts) {
+				log.error("Giving up on response [ID: {}] after {} attempts", message.getId(), attempts);
+				message.setNextAttemptAt(null);
+				abandoned.increment();
+			} else {
+				message.setNextAttemptAt(LocalDateTime.now().plus(backoff(attempts)));
+			}
+			repository.save(message);
+			return false;
+		}
+	}
+
+	// Exponential with jitter, so a fleet of queued responses doesn't retry in lockstep
+	private Duration backoff(int attempts) {
+		long capped = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(attempts - 1, 20));
+		return Duration.ofMillis(ThreadLocalRandom.current().nextLong(capped / 2, capped + 1));
+	}
+
+	private static String truncate(String text) {
+		return (text == null || text.length() <= 1000) ? text : text.substring(0, 1000);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		publisher.shutdownNow();
+	}
+}
@@ -0,0 +1,330 @@
+package com.azziedevelopment.ai2mqtt.service.persistence;
+
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import com.azziedevelopment.ai2mqtt.model.ConversationRepository;
+import com.azziedevelopment.ai2mqtt.model.ThreadSummaryRepository;
+import com.azziedevelopment.ai2mqtt.service.events.DashboardEvents;
+import com.azziedevelopment.ai2mqtt.service.search.ConversationIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for {@link ConversationPair} rows.
+ * <p>
+ * {@link #stage} only records the latest state of a row in memory and returns, so the prompt
+ * pipeline never waits for disk I/O. A background flusher writes everything staged so far as
+ * one JDBC batch of H2 {@code MERGE} upserts, either every {@code flush-interval-ms} or as soon as
+ * {@code batch-size} rows are waiting. A PENDING row that is superseded by its COMPLETED/FAILED
+ * state before the next flush is only written once. Flushes are serialized, so an older state
+ * can never overwrite a newer one, and everything left is flushed on shutdown.
+ * <p>
+ * If a batch fails, its rows are retried one by one so a single bad row can't hold back the others. A row that
+ * still fails while others get through is logged and dropped. If none get through, the database is more likely
+ * unavailable; the rows are kept for the next flush, up to {@code max-row-attempts} times each.
+ * <p>
+ * Written rows are passed on to the {@link ConversationIndex}, which indexes finished ones in the background.
+ * Every staged state also goes out to open dashboards via {@link DashboardEvents}, without waiting for the flush.
+ */
+@Slf4j
+@Component
+public class ConversationWriter {
+
+	private static final String UPSERT = """
+		MERGE INTO conversations (id, thread_id, prompt, response, status, timestamp, max_tokens, temperature, cached)
+		KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+		""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final ConversationRepository repository;
+	private final ThreadSummaryRepository threadSummaries;
+	private final ConversationIndex conversationIndex;
+	private final DashboardEvents dashboardEvents;
+	private final TransactionTemplate transactionTemplate;
+	private final int batchSize;
+	private final long flushIntervalMs;
+	private final int maxRowAttempts;
+
+	// Insertion-ordered; re-staging an id replaces its value but keeps its place
+	private final LinkedHashMap<String, ConversationPair> pending = new LinkedHashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition batchReady = lock.newCondition();
+	private final ReentrantLock flushLock = new ReentrantLock();
+	// Failed write attempts of rows that are waiting for another try; guarded by lock
+	private final Map<String, Integer> failedAttempts = new HashMap<>();
+
+	private final Thread flusher;
+	private volatile boolean running = true;
+
+	private final Timer flushTimer;
+	private final Counter rowsWritten;
+	private final Counter flushFailures;
+	private final Counter rowsDropped;
+
+	public ConversationWriter(JdbcTemplate jdbcTemplate,
+	                          ConversationRepository repository,
+	                          ThreadSummaryRepository threadSummaries,
+	                          ConversationIndex conversationIndex,
+	                          DashboardEvents dashboardEvents,
+	                          PlatformTransactionManager transactionManager,
+	                          MeterRegistry meterRegistry,
+	                          @Value("${persistence.write-behind.batch-size:50}") int batchSize,
+	                          @Value("${persistence.write-behind.flush-interval-ms:200}") long flushIntervalMs,
+	                          @Value("${persistence.write-behind.max-row-attempts:10}") int maxRowAttempts) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.repository = repository;
+		this.threadSummaries = threadSummaries;
+		this.conversationIndex = conversationIndex;
+		this.dashboardEvents = dashboardEvents;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.batchSize = batchSize;
+		this.flushIntervalMs = flushIntervalMs;
+		this.maxRowAttempts = Math.max(1, maxRowAttempts);
+
+		Gauge.builder("ai2mqtt.persistence.backlog", this, ConversationWriter::backlog)
+			.description("Conversation rows staged but not yet written")
+			.register(meterRegistry);
+		this.flushTimer = Timer.builder("ai2mqtt.persistence.flush")
+			.description("Time to write one batch of conversation rows")
+			.register(meterRegistry);
+		this.rowsWritten = Counter.builder("ai2mqtt.persistence.rows").register(meterRegistry);
+		this.flushFailures = Counter.builder("ai2mqtt.persistence.failures").register(meterRegistry);
+		this.rowsDropped = Counter.builder("ai2mqtt.persistence.dropped")
+			.description("Conversation rows given up on after they could not be written")
+			.register(meterRegistry);
+
+		this.flusher = Thread.ofPlatform().name("conversation-writer").daemon().start(this::runFlusher);
+	}
+
+	/**
+	 * Records the current state of {@code pair}. A copy is taken, so the caller may keep mutating it.
+	 */
+	public void stage(ConversationPair pair) {
+		ConversationPair snapshot = pair.toBuilder().build();
+		lock.lock();
+		try {
+			pending.put(snapshot.getId(), snapshot);
+			if (pending.size() >= batchSize) {
+				batchReady.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		dashboardEvents.turn(snapshot);
+	}
+
+	/**
+	 * The latest state of a row, whether it is still staged or already written.
+	 */
+	public Optional<ConversationPair> find(String id) {
+		// Holding the flush lock means the row can't be in transit between the buffer and H2
+		flushLock.lock();
+		try {
+			lock.lock();
+			try {
+				ConversationPair staged = pending.get(id);
+				if (staged != null) {
+					return Optional.of(staged.toBuilder().build());
+				}
+			} finally {
+				lock.unlock();
+			}
+			return repository.findById(id);
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	public int backlog() {
+		lock.lock();
+		try {
+			return pending.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes everything staged so far and returns once it is on disk (or the write failed).
+	 * Used for read-your-writes on cold paths and on shutdown.
+	 */
+	public void flush() {
+		flushLock.lock();
+		try {
+			List<ConversationPair> batch;
+			lock.lock();
+			try {
+				if (pending.isEmpty()) {
+					return;
+				}
+				batch = new ArrayList<>(pending.values());
+				pending.clear();
+			} finally {
+				lock.unlock();
+			}
+			write(batch);
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void write(List<ConversationPair> batch) {
+		long start = System.nanoTime();
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				jdbcTemplate.batchUpdate(UPSERT, batch, batchSize, ConversationWriter::bind);
+				threadSummaries.refresh(threadIds(batch));
+			});
+			written(batch);
+		} catch (Exception e) {
+			flushFailures.increment();
+			log.warn("Failed to write {} conversation rows as a batch, writing them one by one", batch.size(), e);
+			writeOneByOne(batch);
+		} finally {
+			flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void writeOneByOne(List<ConversationPair> batch) {
+		List<ConversationPair> written = new ArrayList<>(batch.size());
+		List<ConversationPair> failed = new ArrayList<>();
+		for (ConversationPair pair : batch) {
+			try {
+				jdbcTemplate.update(UPSERT, ps -> bind(ps, pair));
+				written.add(pair);
+			} catch (Exception e) {
+				log.warn("Failed to write conversation row [ID: {}]: {}", pair.getId(), e.getMessage());
+				failed.add(pair);
+			}
+		}
+		if (!written.isEmpty()) {
+			try {
+				threadSummaries.refresh(threadIds(written));
+			} catch (Exception e) {
+				// The rows are in; the summaries catch up with the thread's next write
+				log.warn("Failed to refresh thread summaries: {}", e.getMessage());
+			}
+			written(written);
+		}
+		if (failed.isEmpty()) {
+			return;
+		}
+		if (written.isEmpty()) {
+			requeue(failed);
+		} else {
+			// The database takes other rows, so these can't be written at all; retrying won't change that
+			failed.forEach(this::drop);
+		}
+	}
+
+	private void written(List<ConversationPair> rows) {
+		rowsWritten.increment(rows.size());
+		lock.lock();
+		try {
+			if (!failedAttempts.isEmpty()) {
+				rows.forEach(pair -> failedAttempts.remove(pair.getId()));
+			}
+		} finally {
+			lock.unlock();
+		}
+		// Only once committed, so search never finds a row the database doesn't have
+		conversationIndex.enqueue(rows);
+	}
+
+	private void requeue(List<ConversationPair> rows) {
+		List<ConversationPair> exhausted = new ArrayList<>();
+		lock.lock();
+		try {
+			for (ConversationPair pair : rows) {
+				if (failedAttempts.merge(pair.getId(), 1, Integer::sum) >= maxRowAttempts) {
+					exhausted.add(pair);
+				} else {
+					// Anything staged meanwhile is newer than what failed, so it wins
+					pending.putIfAbsent(pair.getId(), pair);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		exhausted.forEach(this::drop);
+	}
+
+	private void drop(ConversationPair pair) {
+		lock.lock();
+		try {
+			failedAttempts.remove(pair.getId());
+		} finally {
+			lock.unlock();
+		}
+		rowsDropped.increment();
+		log.error("Giving up on conversation row [ID: {}, Thread: {}, Status: {}, Prompt: {}]",
+			pair.getId(), pair.getThreadId(), pair.getStatus(), pair.getPrompt());
+	}
+
+	private static Set<String> threadIds(List<ConversationPair> rows) {
+		Set<String> threadIds = new LinkedHashSet<>();
+		rows.forEach(pair -> threadIds.add(pair.getThreadId()));
+		return threadIds;
+	}
+
+	private static void bind(PreparedStatement ps, ConversationPair pair) throws SQLException {
+		ps.setString(1, pair.getId());
+		ps.setString(2, pair.getThreadId());
+		ps.setString(3, pair.getPrompt());
+		ps.setString(4, pair.getResponse());
+		ps.setString(5, pair.getStatus());
+		ps.setObject(6, pair.getTimestamp(), Types.TIMESTAMP);
+		ps.setObject(7, pair.getMaxTokens(), Types.INTEGER);
+		ps.setObject(8, pair.getTemperature(), Types.DOUBLE);
+		ps.setObject(9, pair.getCached(), Types.BOOLEAN);
+	}
+
+	private void runFlusher() {
+		while (running) {
+			lock.lock();
+			try {
+				if (pending.size() < batchSize) {
+					batchReady.await(flushIntervalMs, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+			flush();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		running = false;
+		flusher.interrupt();
+		flusher.join(TimeUnit.SECONDS.toMillis(10));
+		flush();
+		log.info("Conversation writer flushed on shutdown");
+	}
+}
@@ -0,0 +1,383 @@
+package com.azziedevelopment.ai2mqtt.service.search;
+
+import com.azziedevelopment.ai2mqtt.dto.SearchHit;
+import com.azziedevelopment.ai2mqtt.dto.SearchPage;
+import com.azziedevelopment.ai2mqtt.model.ArchivedThread;
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded Lucene index over the prompts and responses of finished turns (COMPLETED and FAILED).
+ * <p>
+ * {@code ConversationWriter} hands over every row it has written; a background indexer adds them and refreshes
+ * the searcher at most every {@code search.refresh-interval}, so neither the prompt pipeline nor the writer waits.
+ * Each commit records how far the database has been indexed. On startup, rows from that point on are (re)indexed
+ * in the background, which builds the index from scratch the first time and fills any gap left by a crash.
+ * <p>
+ * Archived threads stay searchable until {@code archive.retention}: their documents are kept when the rows leave
+ * H2, and deleted with the segment that holds them.
+ *
+ * @see com.azziedevelopment.ai2mqtt.service.persistence.ConversationWriter
+ */
+@Slf4j
+@Component
+public class ConversationIndex {
+
+	private static final String[] TEXT_FIELDS = {"prompt", "response"};
+	private static final Sort NEWEST_FIRST = new Sort(new SortField("timestamp", SortField.Type.LONG, true));
+	private static final String INDEXED_UP_TO = "indexedUpTo";
+	// A row is indexed once finished, which can be a while after its timestamp (queueing, slow answers)
+	private static final long CATCH_UP_MARGIN_MILLIS = TimeUnit.HOURS.toMillis(1);
+	private static final int FRAGMENT_CHARS = 160;
+
+	private static final String CATCH_UP = """
+		SELECT id, thread_id, prompt, response, status, timestamp FROM conversations
+		WHERE status IN ('COMPLETED', 'FAILED') AND timestamp >= ?
+		ORDER BY timestamp
+		""";
+
+	private final boolean enabled;
+	private final JdbcTemplate jdbcTemplate;
+	private final long refreshIntervalMillis;
+	private final long commitIntervalMillis;
+
+	private final Analyzer analyzer = new StandardAnalyzer();
+	private final BlockingQueue<ConversationPair> backlog = new LinkedBlockingQueue<>();
+	private IndexWriter writer;
+	private SearcherManager searcherManager;
+	private Thread indexer;
+	private volatile boolean running = true;
+	// Newest row timestamp handed to the writer, saved with each commit
+	private long indexedUpTo;
+
+	private final Timer queryTimer;
+
+	public ConversationIndex(JdbcTemplate jdbcTemplate,
+	                         MeterRegistry meterRegistry,
+	                         @Value("${search.enabled:true}") boolean enabled,
+	                         @Value("${search.dir:./data/search-index}") String directory,
+	                         @Value("${search.refresh-interval:1s}") Duration refreshInterval,
+	                         @Value("${search.commit-interval:30s}") Duration commitInterval) throws IOException {
+		this.enabled = enabled;
+		this.jdbcTemplate = jdbcTemplate;
+		this.refreshIntervalMillis = refreshInterval.toMillis();
+		this.commitIntervalMillis = commitInterval.toMillis();
+
+		this.queryTimer = Timer.builder("ai2mqtt.search.query")
+			.description("Full-text search requests")
+			.publishPercentiles(0.5, 0.99)
+			.register(meterRegistry);
+		Gauge.builder("ai2mqtt.search.backlog", backlog, BlockingQueue::size)
+			.description("Finished turns waiting to be indexed")
+			.register(meterRegistry);
+
+		if (!enabled) {
+			return;
+		}
+		this.writer = new IndexWriter(FSDirectory.open(Path.of(directory)),
+			new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+		// Near-real-time: searches see what the writer has added once refreshed, without a commit
+		this.searcherManager = new SearcherManager(writer, null);
+		Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+		if (commitData != null) {
+			for (Map.Entry<String, String> entry : commitData) {
+				if (INDEXED_UP_TO.equals(entry.getKey())) {
+					indexedUpTo = Long.parseLong(entry.getValue());
+				}
+			}
+		}
+		Gauge.builder("ai2mqtt.search.documents", writer, indexWriter -> indexWriter.getDocStats().numDocs)
+			.register(meterRegistry);
+		this.indexer = Thread.ofVirtual().name("conversation-indexer").start(this::runIndexer);
+	}
+
+	/**
+	 * Queues rows for indexing; unfinished (PENDING) rows are skipped. Never blocks.
+	 */
+	public void enqueue(List<ConversationPair> rows) {
+		if (!enabled) {
+			return;
+		}
+		for (ConversationPair row : rows) {
+			if ("COMPLETED".equals(row.getStatus()) || "FAILED".equals(row.getStatus())) {
+				backlog.add(row);
+			}
+		}
+	}
+
+	/**
+	 * Removes the archived turns of these threads, which retention has deleted. Turns a thread got after it was
+	 * archived are newer than its block and stay. Committed straight away, so a crash can't bring them back.
+	 */
+	public void deleteThreads(List<ArchivedThread> threads) throws IOException {
+		if (!enabled || threads.isEmpty()) {
+			return;
+		}
+		Query[] archived = threads.stream()
+			.map(thread -> new BooleanQuery.Builder()
+				.add(new TermQuery(new Term("threadId", thread.threadId())), BooleanClause.Occur.FILTER)
+				.add(LongPoint.newRangeQuery("timestamp", Long.MIN_VALUE, millis(thread.lastTimestamp())),
+					BooleanClause.Occur.FILTER)
+				.build())
+			.toArray(Query[]::new);
+		writer.deleteDocuments(archived);
+		writer.commit();
+		searcherManager.maybeRefresh();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param text     Lucene query syntax over prompt and response, e.g. {@code kitchen AND "lights off"}
+	 * @param status   optional filter (COMPLETED, FAILED)
+	 * @param threadId optional filter
+	 * @param from     optional lower bound (inclusive) of the turn's timestamp
+	 * @param to       optional upper bound (inclusive)
+	 * @param newest   sort by time instead of relevance
+	 * @throws ParseException if {@code text} is not a valid query
+	 */
+	public SearchPage search(String text, String status, String threadId, LocalDateTime from, LocalDateTime to,
+	                         boolean newest, int page, int size) throws ParseException, IOException {
+		if (!enabled) {
+			throw new IllegalStateException("Search is disabled (search.enabled=false)");
+		}
+		long started = System.nanoTime();
+
+		// Parsers are cheap and not thread-safe
+		QueryParser parser = new MultiFieldQueryParser(TEXT_FIELDS, analyzer);
+		parser.setDefaultOperator(QueryParser.Operator.AND);
+		Query textQuery = parser.parse(text);
+
+		BooleanQuery.Builder query = new BooleanQuery.Builder().add(textQuery, BooleanClause.Occur.MUST);
+		if (status != null && !status.isBlank()) {
+			query.add(new TermQuery(new Term("status", status.toUpperCase())), BooleanClause.Occur.FILTER);
+		}
+		if (threadId != null && !threadId.isBlank()) {
+			query.add(new TermQuery(new Term("threadId", threadId)), BooleanClause.Occur.FILTER);
+		}
+		if (from != null || to != null) {
+			query.add(LongPoint.newRangeQuery("timestamp",
+				(from != null) ? millis(from) : Long.MIN_VALUE,
+				(to != null) ? millis(to) : Long.MAX_VALUE), BooleanClause.Occur.FILTER);
+		}
+
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			int wanted = (page + 1) * size;
+			TopDocs top = newest ? searcher.search(query.build(), wanted, NEWEST_FIRST) : searcher.search(query.build(), wanted);
+
+			StoredFields stored = searcher.storedFields();
+			List<SearchHit> hits = new ArrayList<>(size);
+			for (int i = page * size; i < top.scoreDocs.length; i++) {
+				ScoreDoc scoreDoc = top.scoreDocs[i];
+				Document doc = stored.document(scoreDoc.doc);
+				hits.add(new SearchHit(
+					doc.get("id"),
+					doc.get("threadId"),
+					doc.get("status"),
+					fromMillis(doc.getField("timestampStored").numericValue().longValue()),
+					Float.isNaN(scoreDoc.score) ? null : scoreDoc.score,
+					highlight(textQuery, "prompt", doc.get("prompt")),
+					highlight(textQuery, "response", doc.get("response"))));
+			}
+			return new SearchPage(text, top.totalHits.value, page, size, hits);
+		} finally {
+			searcherManager.release(searcher);
+			queryTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private String highlight(Query query, String field, String text) throws IOException {
+		if (text == null) {
+			return null;
+		}
+		QueryScorer scorer = new QueryScorer(query, field);
+		Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<mark>", "</mark>"),
+			new SimpleHTMLEncoder(), scorer);
+		highlighter.setTextFragmenter(new SimpleSpanFragmenter(scorer, FRAGMENT_CHARS));
+		try {
+			String[] fragments = highlighter.getBestFragments(analyzer, field, text, 3);
+			if (fragments.length > 0) {
+				return String.join(" … ", fragments);
+			}
+		} catch (InvalidTokenOffsetsException e) {
+			log.debug("Could not highlight {}", field, e);
+		}
+		// No match in this field: show its beginning
+		return HtmlUtils.htmlEscape(text.length() > FRAGMENT_CHARS ? text.substring(0, FRAGMENT_CHARS) + "…" : text);
+	}
+
+	private void runIndexer() {
+		catchUp();
+
+		long lastCommit = System.currentTimeMillis();
+		List<ConversationPair> batch = new ArrayList<>();
+		while (running || !backlog.isEmpty()) {
+			try {
+				ConversationPair first = backlog.poll(refreshIntervalMillis, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					backlog.drainTo(batch);
+					for (ConversationPair row : batch) {
+						add(row);
+					}
+					batch.clear();
+					searcherManager.maybeRefresh();
+				}
+				if (System.currentTimeMillis() - lastCommit >= commitIntervalMillis) {
+					commit();
+					lastCommit = System.currentTimeMillis();
+				}
+			} catch (InterruptedException e) {
+				// Shutdown: index what is left, then stop
+				running = false;
+			} catch (Exception e) {
+				log.error("Indexing failed for {} rows", batch.size(), e);
+				batch.clear();
+			}
+		}
+	}
+
+	// Indexes everything finished since the last commit (minus a margin); updates are idempotent
+	private void catchUp() {
+		LocalDateTime since = (indexedUpTo == 0)
+			? LocalDateTime.of(1970, 1, 1, 0, 0)
+			: fromMillis(indexedUpTo - CATCH_UP_MARGIN_MILLIS);
+		long started = System.nanoTime();
+		int[] rows = {0};
+		try {
+			jdbcTemplate.query(connection -> {
+				var statement = connection.prepareStatement(CATCH_UP);
+				statement.setObject(1, since);
+				statement.setFetchSize(500);
+				return statement;
+			}, rs -> {
+				add(ConversationPair.builder()
+					.id(rs.getString("id"))
+					.threadId(rs.getString("thread_id"))
+					.prompt(rs.getString("prompt"))
+					.response(rs.getString("response"))
+					.status(rs.getString("status"))
+					.timestamp(rs.getObject("timestamp", LocalDateTime.class))
+					.build());
+				rows[0]++;
+			});
+			commit();
+			searcherManager.maybeRefresh();
+			if (rows[0] > 0) {
+				log.info("Search index caught up: {} rows in {} ms", rows[0],
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+			}
+		} catch (Exception e) {
+			log.error("Search index catch-up failed after {} rows", rows[0], e);
+		}
+	}
+
+	private void add(ConversationPair row) {
+		try {
+			long timestamp = millis(row.getTimestamp() != null ? row.getTimestamp() : LocalDateTime.now());
+			Document doc = new Document();
+			doc.add(new StringField("id", row.getId(), Field.Store.YES));
+			doc.add(new StringField("threadId", row.getThreadId(), Field.Store.YES));
+			doc.add(new StringField("status", row.getStatus(), Field.Store.YES));
+			doc.add(new LongPoint("timestamp", timestamp));
+			doc.add(new NumericDocValuesField("timestamp", timestamp));
+			doc.add(new StoredField("timestampStored", timestamp));
+			if (row.getPrompt() != null) {
+				doc.add(new TextField("prompt", row.getPrompt(), Field.Store.YES));
+			}
+			if (row.getResponse() != null) {
+				doc.add(new TextField("response", row.getResponse(), Field.Store.YES));
+			}
+			// Replaces an earlier version of the same row (e.g. FAILED, then COMPLETED on redelivery)
+			writer.updateDocument(new Term("id", row.getId()), doc);
+			indexedUpTo = Math.max(indexedUpTo, timestamp);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void commit() throws IOException {
+		writer.setLiveCommitData(Map.of(INDEXED_UP_TO, Long.toString(indexedUpTo)).entrySet());
+		writer.commit();
+	}
+
+	// Timestamps are local date-times; UTC is only used as a fixed scale for the index
+	private static long millis(LocalDateTime time) {
+		return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	private static LocalDateTime fromMillis(long millis) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1_000_000,
+			ZoneOffset.UTC);
+	}
+
+	@PreDestroy
+	public void shutdown() throws IOException, InterruptedException {
+		if (!enabled) {
+			return;
+		}
+		running = false;
+		indexer.interrupt();
+		indexer.join(TimeUnit.SECONDS.toMillis(10));
+		commit();
+		searcherManager.close();
+		writer.close();
+	}
+}
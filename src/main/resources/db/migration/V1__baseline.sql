@@ -0,0 +1,38 @@
+-- Schema as previously generated by Hibernate: ddl-auto=create in the original tree, ddl-auto=update since the
+-- outbox was added. Databases created under update are baselined at version 0 and then run this too, so every
+-- statement is idempotent, and columns added after such a database was created are added here.
+
+CREATE TABLE IF NOT EXISTS conversations (
+    id          VARCHAR(36) NOT NULL PRIMARY KEY,
+    thread_id   VARCHAR(36) NOT NULL,
+    prompt      CLOB,
+    response    CLOB,
+    status      VARCHAR(255),
+    timestamp   TIMESTAMP(6),
+    max_tokens  INTEGER,
+    temperature FLOAT(53),
+    cached      BOOLEAN
+);
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS cached BOOLEAN;
+CREATE INDEX IF NOT EXISTS idx_conversations_thread_ts ON conversations (thread_id, timestamp);
+CREATE INDEX IF NOT EXISTS idx_conversations_ts ON conversations (timestamp);
+
+CREATE TABLE IF NOT EXISTS conversation_summaries (
+    thread_id     VARCHAR(36) NOT NULL PRIMARY KEY,
+    summary       CLOB,
+    covered_turns INTEGER     NOT NULL,
+    updated_at    TIMESTAMP(6)
+);
+
+CREATE TABLE IF NOT EXISTS response_outbox (
+    id              VARCHAR(36) NOT NULL PRIMARY KEY,
+    thread_id       VARCHAR(36),
+    transport       VARCHAR(16),
+    response        CLOB,
+    attempts        INTEGER     NOT NULL,
+    next_attempt_at TIMESTAMP(6),
+    created_at      TIMESTAMP(6),
+    last_error      VARCHAR(1000)
+);
+ALTER TABLE response_outbox ADD COLUMN IF NOT EXISTS transport VARCHAR(16);
+CREATE INDEX IF NOT EXISTS idx_outbox_next_attempt ON response_outbox (next_attempt_at);
@@ -0,0 +1,11 @@
+-- Where each archived thread's turns live: one compressed block per thread in a per-day segment file
+CREATE TABLE archive_index (
+    thread_id      VARCHAR(36)  NOT NULL PRIMARY KEY,
+    segment        VARCHAR(64)  NOT NULL,
+    block_offset   BIGINT       NOT NULL,
+    block_length   INTEGER      NOT NULL,
+    turns          INTEGER      NOT NULL,
+    last_timestamp TIMESTAMP(6) NOT NULL,
+    archived_at    TIMESTAMP(6) NOT NULL
+);
+CREATE INDEX idx_archive_segment ON archive_index (segment, block_offset);
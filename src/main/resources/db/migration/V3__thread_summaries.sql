@@ -0,0 +1,17 @@
+-- One row per thread for the dashboard list, kept current by the conversation writer, so a page is an index
+-- range scan instead of a GROUP BY over every conversation
+CREATE TABLE thread_summaries (
+    thread_id      VARCHAR(36)  NOT NULL PRIMARY KEY,
+    message_count  BIGINT       NOT NULL,
+    last_timestamp TIMESTAMP(6),
+    last_status    VARCHAR(255)
+);
+CREATE INDEX idx_thread_summaries_last ON thread_summaries (last_timestamp DESC, thread_id DESC);
+
+INSERT INTO thread_summaries (thread_id, message_count, last_timestamp, last_status)
+SELECT c.thread_id, COUNT(*), MAX(c.timestamp),
+       (SELECT s.status FROM conversations s
+        WHERE s.thread_id = c.thread_id
+        ORDER BY s.timestamp DESC LIMIT 1)
+FROM conversations c
+GROUP BY c.thread_id;
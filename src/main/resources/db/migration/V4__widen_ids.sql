@@ -0,0 +1,9 @@
+-- Ids come from clients and brokers (a JMS message id is ID:host-port-...), so 36 characters (a UUID) is too few.
+-- Widened rather than hashed, so every reply carries the id the requester sent.
+ALTER TABLE conversations ALTER COLUMN id SET DATA TYPE VARCHAR(255);
+ALTER TABLE conversations ALTER COLUMN thread_id SET DATA TYPE VARCHAR(255);
+ALTER TABLE conversation_summaries ALTER COLUMN thread_id SET DATA TYPE VARCHAR(255);
+ALTER TABLE response_outbox ALTER COLUMN id SET DATA TYPE VARCHAR(255);
+ALTER TABLE response_outbox ALTER COLUMN thread_id SET DATA TYPE VARCHAR(255);
+ALTER TABLE archive_index ALTER COLUMN thread_id SET DATA TYPE VARCHAR(255);
+ALTER TABLE thread_summaries ALTER COLUMN thread_id SET DATA TYPE VARCHAR(255);
@@ -0,0 +1,3 @@
+-- Where a queued response goes (MQTT 5 response topic, JMS reply destination) and the correlation to send with it
+ALTER TABLE response_outbox ADD COLUMN reply_to VARCHAR(1024);
+ALTER TABLE response_outbox ADD COLUMN reply_correlation VARCHAR(1024);
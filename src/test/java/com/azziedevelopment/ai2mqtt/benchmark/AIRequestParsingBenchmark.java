@@ -0,0 +1,64 @@
+package com.azziedevelopment.ai2mqtt.benchmark;
+
+import com.azziedevelopment.ai2mqtt.dto.AIRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound parse as done by the adapters: a JSON prompt into {@link AIRequest}, and the raw-text
+ * fallback (which pays for a failed parse first).
+ * <p>
+ * Run with: {@code ./mvnw -Pbenchmark test-compile exec:exec -Djmh.args="AIRequestParsing -prof gc"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class AIRequestParsingBenchmark {
+
+	@Param({"64", "2048"})
+	public int promptSize;
+
+	private ObjectMapper objectMapper;
+	private ObjectReader requestReader;
+	private String jsonPayload;
+	private String rawPayload;
+
+	@Setup
+	public void setup() throws Exception {
+		objectMapper = new ObjectMapper();
+		requestReader = objectMapper.readerFor(AIRequest.class);
+
+		rawPayload = "What should I cook for dinner? ".repeat(promptSize / 31 + 1).substring(0, promptSize);
+		jsonPayload = objectMapper.writeValueAsString(new AIRequest(
+			"5f0c7a52-3c1e-4d8f-9b8e-2f1c0e6a9d41", "kitchen-display", rawPayload,
+			"You are a Michelin star chef. Be brief.", 200, 0.3, 9));
+	}
+
+	/** What the adapters do today */
+	@Benchmark
+	public AIRequest json() throws Exception {
+		return objectMapper.readValue(jsonPayload, AIRequest.class);
+	}
+
+	/** Same parse through a pre-built reader (skips the per-call type lookup) */
+	@Benchmark
+	public AIRequest jsonReader() throws Exception {
+		return requestReader.readValue(jsonPayload);
+	}
+
+	@Benchmark
+	public AIRequest rawTextFallback() {
+		try {
+			return objectMapper.readValue(rawPayload, AIRequest.class);
+		} catch (Exception e) {
+			return new AIRequest(null, null, rawPayload, null, null, null, null);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.azziedevelopment.ai2mqtt.benchmark;
+
+import com.azziedevelopment.ai2mqtt.service.context.ContextAssembler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ContextAssembler#assemble} for threads of increasing length. Short threads fit entirely;
+ * long ones exercise the trimming to the token budget (summaries off, as by default).
+ * <p>
+ * Run with: {@code ./mvnw -Pbenchmark test-compile exec:exec -Djmh.args="ContextAssembly -prof gc"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ContextAssemblyBenchmark {
+
+	@Param({"0", "10", "200"})
+	public int turns;
+
+	private ContextAssembler assembler;
+	private List<Map<String, String>> history;
+
+	@Setup
+	public void setup() {
+		assembler = new ContextAssembler(null, new SimpleMeterRegistry(), 8192, false, 4);
+
+		history = new ArrayList<>();
+		for (int i = 0; i < turns; i++) {
+			history.add(Map.of("role", "user", "content", "Turn on the living room lights and set them to 40% please"));
+			history.add(Map.of("role", "assistant", "content",
+				"Done. The living room lights are on at 40%. Anything else I can adjust for the evening?"));
+		}
+	}
+
+	@Benchmark
+	public List<Map<String, String>> assemble() {
+		return assembler.assemble("living-room", "You are a helpful home automation assistant. Keep responses concise.",
+			history, "And close the blinds.", 500);
+	}
+}
@@ -0,0 +1,278 @@
+package com.azziedevelopment.ai2mqtt.benchmark;
+
+import com.azziedevelopment.ai2mqtt.AI2MQTTApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import jakarta.jms.Connection;
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.MessageConsumer;
+import jakarta.jms.Session;
+import jakarta.jms.TextMessage;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jms.core.JmsTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end load test: boots the whole application against {@link StubCompletionServer} and an
+ * in-process broker (Moquette for {@code mqtt}, an ActiveMQ {@code vm://} broker for {@code activemq}),
+ * then pushes prompts through the real adapter and measures until each response comes back.
+ * <p>
+ * Run with:
+ * <pre>
+ * ./mvnw -Pbenchmark test-compile exec:exec \
+ *   -Dbenchmark.main=com.azziedevelopment.ai2mqtt.benchmark.LoadHarness \
+ *   -Dbenchmark.args="transport=mqtt prompts=5000 in-flight=64 latency-ms=200 stream=false"
+ * </pre>
+ * Options (all {@code key=value}): {@code transport} (mqtt|activemq), {@code prompts}, {@code warmup},
+ * {@code in-flight} (prompts outstanding at once), {@code latency-ms} and {@code capacity} of the stub backend,
+ * {@code stream}, {@code dispatch-concurrency}, {@code adaptive-limit} (true|false).
+ * <p>
+ * With {@code capacity} below {@code dispatch-concurrency} the stub queues requests, and the report shows which
+ * concurrency limit the adaptive limiter settled on. Compare the latency with {@code adaptive-limit=false}.
+ * <p>
+ * The allocation rate covers the whole JVM (bridge, broker and load generator alike), so compare it
+ * between runs rather than reading it as the bridge's own cost.
+ */
+public class LoadHarness {
+
+	private final String transport;
+	private final int prompts;
+	private final int warmup;
+	private final int inFlight;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final Map<String, Long> sentAt = new ConcurrentHashMap<>();
+	private long[] latencies;
+	private final AtomicInteger recorded = new AtomicInteger();
+	private volatile boolean measuring;
+	private Semaphore window;
+	private CountDownLatch remaining;
+
+	private LoadHarness(Map<String, String> options) {
+		this.transport = options.getOrDefault("transport", "mqtt");
+		this.prompts = Integer.parseInt(options.getOrDefault("prompts", "2000"));
+		this.warmup = Integer.parseInt(options.getOrDefault("warmup", "200"));
+		this.inFlight = Integer.parseInt(options.getOrDefault("in-flight", "64"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+		}
+
+		Duration latency = Duration.ofMillis(Long.parseLong(options.getOrDefault("latency-ms", "200")));
+		int capacity = Integer.parseInt(options.getOrDefault("capacity", "64"));
+		boolean stream = Boolean.parseBoolean(options.getOrDefault("stream", "false"));
+		int chunks = stream ? 8 : 1;
+
+		LoadHarness harness = new LoadHarness(options);
+		try (StubCompletionServer backend = new StubCompletionServer(latency, capacity, chunks)) {
+			Map<String, Object> properties = new HashMap<>();
+			properties.put("messaging.type", harness.transport);
+			properties.put("openai.base-url", backend.baseUrl());
+			properties.put("openai.api.key", "stub");
+			properties.put("openai.model", "stub-model");
+			properties.put("openai.http-profile", "local");
+			properties.put("ai.http.profiles.local.max-connections", capacity);
+			properties.put("openai.stream.enabled", stream);
+			properties.put("dispatch.max-concurrency", options.getOrDefault("dispatch-concurrency", "64"));
+			properties.put("ai.routing.limiter.enabled", options.getOrDefault("adaptive-limit", "true"));
+			properties.put("ai.routing.limiter.max-limit", options.getOrDefault("dispatch-concurrency", "64"));
+			properties.put("dispatch.queue-capacity", Math.max(1000, harness.inFlight * 2));
+			properties.put("response-cache.enabled", false);
+			properties.put("spring.datasource.url", "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1");
+			properties.put("server.port", 0);
+			properties.put("homeassistant.discovery.enabled", false);
+			properties.put("logging.level.com.azziedevelopment", "WARN");
+
+			if ("activemq".equals(harness.transport)) {
+				properties.put("spring.activemq.broker-url", "vm://bench?broker.persistent=false&broker.useJmx=false");
+				properties.put("activemq.prompts.destination-type", "queue");
+				harness.runActiveMQ(properties, backend);
+			} else {
+				harness.runMqtt(properties, backend);
+			}
+		}
+		System.exit(0);
+	}
+
+	private void runMqtt(Map<String, Object> properties, StubCompletionServer backend) throws Exception {
+		int port = freePort();
+		Properties brokerConfig = new Properties();
+		brokerConfig.setProperty("host", "127.0.0.1");
+		brokerConfig.setProperty("port", Integer.toString(port));
+		brokerConfig.setProperty("allow_anonymous", "true");
+		brokerConfig.setProperty("persistence_enabled", "false");
+		Server broker = new Server();
+		broker.startServer(new MemoryConfig(brokerConfig));
+
+		String brokerUrl = "tcp://127.0.0.1:" + port;
+		properties.put("mqtt.broker.url", brokerUrl);
+
+		try (ConfigurableApplicationContext app = start(properties)) {
+			MqttClient client = new MqttClient(brokerUrl, "load-harness", new MemoryPersistence());
+			MqttConnectOptions options = new MqttConnectOptions();
+			options.setCleanSession(true);
+			options.setMaxInflight(Math.max(10, inFlight * 2));
+			client.connect(options);
+			client.subscribe(app.getEnvironment().getProperty("mqtt.topic.responses"), 0, (topic, message) ->
+				completed(objectMapper.readTree(message.getPayload()).path("id").asText()));
+
+			String promptTopic = app.getEnvironment().getProperty("mqtt.topic.prompts");
+			drive(app, backend, id -> client.publish(promptTopic, payload(id).getBytes(StandardCharsets.UTF_8), 0, false));
+
+			client.disconnect();
+			client.close();
+		} finally {
+			broker.stopServer();
+		}
+	}
+
+	private void runActiveMQ(Map<String, Object> properties, StubCompletionServer backend) throws Exception {
+		try (ConfigurableApplicationContext app = start(properties)) {
+			JmsTemplate jmsTemplate = app.getBean(JmsTemplate.class);
+			ConnectionFactory connectionFactory = app.getBean(ConnectionFactory.class);
+
+			try (Connection connection = connectionFactory.createConnection()) {
+				Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				MessageConsumer consumer = session.createConsumer(session.createQueue("ai.responses"));
+				consumer.setMessageListener(message -> {
+					try {
+						completed(message.getJMSCorrelationID());
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				});
+				connection.start();
+
+				drive(app, backend, id -> jmsTemplate.send("ai.prompts", s -> {
+					TextMessage message = s.createTextMessage(payload(id));
+					message.setJMSCorrelationID(id);
+					return message;
+				}));
+			}
+		}
+	}
+
+	private ConfigurableApplicationContext start(Map<String, Object> properties) {
+		return new SpringApplicationBuilder(AI2MQTTApplication.class)
+			.properties(properties)
+			.run();
+	}
+
+	private String payload(String id) {
+		return """
+			{"id":"%s","threadId":"%s","text":"Turn on the living room lights and close the blinds"}"""
+			.formatted(id, UUID.randomUUID());
+	}
+
+	private void completed(String id) {
+		Long started = sentAt.remove(id);
+		if (started == null) {
+			return;
+		}
+		if (measuring) {
+			int slot = recorded.getAndIncrement();
+			if (slot < latencies.length) {
+				latencies[slot] = System.nanoTime() - started;
+			}
+		}
+		window.release();
+		remaining.countDown();
+	}
+
+	private void drive(ConfigurableApplicationContext app, StubCompletionServer backend, Sender sender) throws Exception {
+		window = new Semaphore(inFlight);
+
+		// Warm up JIT, connection pools and H2 before measuring
+		remaining = new CountDownLatch(warmup);
+		send(warmup, sender);
+		remaining.await(5, TimeUnit.MINUTES);
+
+		latencies = new long[prompts];
+		remaining = new CountDownLatch(prompts);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long allocatedBefore = threads.getTotalThreadAllocatedBytes();
+		long backendBefore = backend.requests();
+		measuring = true;
+		long start = System.nanoTime();
+
+		send(prompts, sender);
+		boolean finished = remaining.await(10, TimeUnit.MINUTES);
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		measuring = false;
+		long allocated = threads.getTotalThreadAllocatedBytes() - allocatedBefore;
+		report(finished, seconds, allocated, backend.requests() - backendBefore);
+
+		Gauge limit = app.getBean(MeterRegistry.class).find("ai2mqtt.backend.concurrency.limit").gauge();
+		if (limit != null) {
+			System.out.printf("Backend limit:    %.0f concurrent requests%n", limit.value());
+		}
+	}
+
+	private void send(int count, Sender sender) throws Exception {
+		for (int i = 0; i < count; i++) {
+			window.acquire();
+			String id = UUID.randomUUID().toString();
+			sentAt.put(id, System.nanoTime());
+			sender.send(id);
+		}
+	}
+
+	private void report(boolean finished, double seconds, long allocatedBytes, long backendCalls) {
+		int count = Math.min(recorded.get(), latencies.length);
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+
+		System.out.printf("%n=== %s: %d prompts, %d in flight%s ===%n", transport, prompts, inFlight,
+			finished ? "" : " (TIMED OUT, " + count + " answered)");
+		System.out.printf("Throughput:       %.1f prompts/s%n", count / seconds);
+		System.out.printf("Latency p50:      %.1f ms%n", percentile(sorted, 0.50));
+		System.out.printf("Latency p99:      %.1f ms%n", percentile(sorted, 0.99));
+		System.out.printf("Latency max:      %.1f ms%n", count == 0 ? 0.0 : sorted[count - 1] / 1e6);
+		System.out.printf("Allocation rate:  %.1f MB/s (%.1f KB/prompt, whole JVM)%n",
+			allocatedBytes / 1e6 / seconds, count == 0 ? 0.0 : allocatedBytes / 1024.0 / count);
+		System.out.printf("Backend calls:    %d%n", backendCalls);
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) return 0;
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.clamp(index, 0, sorted.length - 1)] / 1e6;
+	}
+
+	private static int freePort() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	@FunctionalInterface
+	private interface Sender {
+		void send(String id) throws Exception;
+	}
+}
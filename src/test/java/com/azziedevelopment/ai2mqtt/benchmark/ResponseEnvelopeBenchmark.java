@@ -0,0 +1,69 @@
+package com.azziedevelopment.ai2mqtt.benchmark;
+
+import com.azziedevelopment.ai2mqtt.service.ResponseEnvelopeEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old {@code String.formatted} + {@code replace} envelope of {@code MQTTAdapter.sendResponse}
+ * against {@link ResponseEnvelopeEncoder}. Both produce the UTF-8 bytes handed to Paho.
+ * <p>
+ * Run with: {@code ./mvnw -Pbenchmark test-compile exec:exec -Djmh.args="ResponseEnvelope -prof gc"}
+ * and compare {@code gc.alloc.rate.norm} (bytes allocated per operation) alongside throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ResponseEnvelopeBenchmark {
+
+	@Param({"1024", "8192", "65536"})
+	public int responseSize;
+
+	private ResponseEnvelopeEncoder encoder;
+	private String correlationId;
+	private String threadId;
+	private String response;
+
+	@Setup
+	public void setup() {
+		encoder = new ResponseEnvelopeEncoder(new ObjectMapper());
+		correlationId = UUID.randomUUID().toString();
+		threadId = "kitchen-display";
+
+		// Typical model output: prose with quotes, newlines and the odd markdown table
+		String alphabet = "abcdefghij klmnopqrst uvwxyz \"quoted\"\n| a | b |\n";
+		StringBuilder text = new StringBuilder(responseSize);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (text.length() < responseSize) {
+			text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		response = text.toString();
+	}
+
+	@Benchmark
+	public byte[] formattedString() {
+		String jsonPayload = """
+			{
+			    "id": "%s",
+			    "threadId": "%s",
+			    "response": "%s"
+			}
+			""".formatted(correlationId, threadId,
+			response.replace("\"", "\\\"").replace("\n", "\\n"));
+		return jsonPayload.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] pooledGenerator() {
+		return encoder.encodeResponse(correlationId, threadId, response);
+	}
+}
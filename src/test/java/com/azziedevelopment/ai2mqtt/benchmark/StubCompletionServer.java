@@ -0,0 +1,120 @@
+package com.azziedevelopment.ai2mqtt.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for an OpenAI-compatible {@code /chat/completions} endpoint.
+ * <p>
+ * Every request takes {@code latency} once it gets one of {@code capacity} slots, so beyond that
+ * many concurrent requests the extra ones queue, the way a GPU server's batch slots do. Streamed
+ * requests ({@code "stream": true}) spread the same latency over {@code chunks} SSE deltas.
+ * {@code GET /models} answers immediately, for the backend health check.
+ */
+public class StubCompletionServer implements AutoCloseable {
+
+	private final Duration latency;
+	private final Semaphore slots;
+	private final int chunks;
+	private final String answer;
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final AtomicLong requests = new AtomicLong();
+
+	public StubCompletionServer(Duration latency, int capacity, int chunks) throws IOException {
+		this.latency = latency;
+		this.slots = new Semaphore(capacity, true);
+		this.chunks = Math.max(1, chunks);
+		this.answer = "The living room lights are on at 40 percent and the blinds are closing now.";
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/chat/completions", this::complete);
+		server.createContext("/models", exchange -> respond(exchange, 200, "{\"data\":[]}"));
+		server.start();
+	}
+
+	public String baseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public long requests() {
+		return requests.get();
+	}
+
+	private void complete(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+		boolean stream = body.replace(" ", "").contains("\"stream\":true");
+
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "{}");
+			return;
+		}
+		try {
+			if (stream) {
+				stream(exchange);
+			} else {
+				Thread.sleep(latency);
+				respond(exchange, 200, """
+					{"choices":[{"index":0,"message":{"role":"assistant","content":"%s"}}],
+					 "usage":{"prompt_tokens":42,"completion_tokens":17}}""".formatted(answer));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			slots.release();
+		}
+	}
+
+	private void stream(HttpExchange exchange) throws IOException, InterruptedException {
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+		exchange.sendResponseHeaders(200, 0);
+		Duration gap = latency.dividedBy(chunks);
+		int step = Math.max(1, answer.length() / chunks);
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			for (int start = 0; start < answer.length(); start += step) {
+				Thread.sleep(gap);
+				String delta = answer.substring(start, Math.min(answer.length(), start + step));
+				write(out, "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + delta + "\"}}]}");
+			}
+			write(out, "{\"choices\":[],\"usage\":{\"prompt_tokens\":42,\"completion_tokens\":17}}");
+			out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static void write(OutputStream out, String json) throws IOException {
+		out.write(("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
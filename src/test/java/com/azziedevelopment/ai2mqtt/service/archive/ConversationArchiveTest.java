@@ -0,0 +1,239 @@
+package com.azziedevelopment.ai2mqtt.service.archive;
+
+import com.azziedevelopment.ai2mqtt.dto.SearchHit;
+import com.azziedevelopment.ai2mqtt.model.ArchiveIndexRepository;
+import com.azziedevelopment.ai2mqtt.model.ArchivedThread;
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import com.azziedevelopment.ai2mqtt.model.ConversationRepository;
+import com.azziedevelopment.ai2mqtt.model.ThreadSummaryRepository;
+import com.azziedevelopment.ai2mqtt.service.events.DashboardEvents;
+import com.azziedevelopment.ai2mqtt.service.persistence.ConversationWriter;
+import com.azziedevelopment.ai2mqtt.service.search.ConversationIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the archive against an in-memory H2 database migrated by Flyway and segment files in a temp dir.
+ * Threads idle for more than a day are archived; {@code maintain()} is called directly instead of on a schedule.
+ */
+class ConversationArchiveTest {
+
+	private static final LocalDateTime NOW = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+
+	@TempDir
+	Path tempDir;
+
+	private EmbeddedDatabase dataSource;
+	private JdbcTemplate jdbcTemplate;
+	private ArchiveIndexRepository index;
+	private ConversationIndex search;
+	private ConversationWriter writer;
+	private ConversationArchive archive;
+
+	// Mid-morning, so a few minutes later is still the same day and segment
+	private static LocalDateTime daysAgo(int days) {
+		return LocalDate.now().minusDays(days).atTime(10, 0);
+	}
+
+	private static ConversationPair turn(String threadId, String prompt, LocalDateTime timestamp) {
+		return ConversationPair.builder()
+			.id(UUID.randomUUID().toString()).threadId(threadId).prompt(prompt).response("Answer to " + prompt)
+			.status("COMPLETED").timestamp(timestamp).maxTokens(500).temperature(0.7).cached(false)
+			.build();
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		dataSource = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+		Flyway.configure().dataSource(dataSource).load().migrate();
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+		// Only the thread lookup is used; answered from the same table the archive deletes from
+		ConversationRepository repository = mock(ConversationRepository.class);
+		when(repository.findByThreadIdOrderByTimestampAsc(anyString()))
+			.thenAnswer(call -> rows(call.getArgument(0)));
+
+		ThreadSummaryRepository threadSummaries = new ThreadSummaryRepository(jdbcTemplate);
+		index = new ArchiveIndexRepository(jdbcTemplate);
+		search = new ConversationIndex(jdbcTemplate, meterRegistry, true, tempDir.resolve("search").toString(),
+			Duration.ofMillis(20), Duration.ofSeconds(30));
+		writer = new ConversationWriter(jdbcTemplate, repository, threadSummaries, search,
+			new DashboardEvents(new ObjectMapper(), meterRegistry, 100, Duration.ofMinutes(1)),
+			transactionManager, meterRegistry, 50, 200, 10);
+		archive = new ConversationArchive(jdbcTemplate, repository, index, threadSummaries, writer, search,
+			transactionManager, meterRegistry, false, tempDir.resolve("archive").toString(),
+			Duration.ofDays(1), Duration.ofDays(30), 0.5, Duration.ofHours(1), 100);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		archive.shutdown();
+		writer.shutdown();
+		search.shutdown();
+		dataSource.shutdown();
+	}
+
+	@Test
+	void archivesIdleThreadsAndRehydratesThemUnchanged() throws Exception {
+		ConversationPair first = turn("idle", "Lights on", daysAgo(10));
+		ConversationPair second = turn("idle", "Lights off", daysAgo(10).plusMinutes(1));
+		ConversationPair active = turn("active", "Weather?", NOW.minusHours(1));
+		store(first, second, active);
+
+		archive.maintain();
+
+		ArchivedThread entry = index.find("idle").orElseThrow();
+		assertThat(entry.turns()).isEqualTo(2);
+		assertThat(entry.segment()).isEqualTo(daysAgo(10).toLocalDate() + ".seg");
+		assertThat(segment(entry.segment())).exists();
+		assertThat(rows("idle")).isEmpty();
+		assertThat(summaryCount("idle")).isZero();
+		assertThat(rows("active")).containsExactly(active);
+		assertThat(index.find("active")).isEmpty();
+
+		assertThat(archive.rehydrate("idle")).isTrue();
+
+		assertThat(rows("idle")).containsExactly(first, second);
+		assertThat(summaryCount("idle")).isOne();
+		assertThat(index.find("idle")).isEmpty();
+		assertThat(archive.rehydrate("idle")).isFalse();
+	}
+
+	@Test
+	void mergesTurnsOfAThreadContinuedAfterItWasArchived() throws Exception {
+		ConversationPair archived = turn("thread", "First question", daysAgo(10));
+		store(archived);
+		archive.maintain();
+		String oldSegment = index.find("thread").orElseThrow().segment();
+
+		// Continued from the cached history, without a rehydration, and idle again since
+		ConversationPair continued = turn("thread", "Follow-up", daysAgo(5));
+		store(continued);
+		archive.maintain();
+
+		ArchivedThread entry = index.find("thread").orElseThrow();
+		assertThat(entry.turns()).isEqualTo(2);
+		assertThat(entry.segment()).isEqualTo(daysAgo(5).toLocalDate() + ".seg");
+		// Its only block is dead now, so the same pass removed it
+		assertThat(segment(oldSegment)).doesNotExist();
+		assertThat(rows("thread")).isEmpty();
+
+		assertThat(archive.rehydrate("thread")).isTrue();
+		assertThat(rows("thread")).containsExactly(archived, continued);
+	}
+
+	@Test
+	void compactionMovesLiveBlocksToANewSegmentAndSwitchesTheIndex() throws Exception {
+		LocalDateTime day = daysAgo(10);
+		List<ConversationPair> large = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			large.add(turn("large", UUID.randomUUID() + " " + UUID.randomUUID(), day.plusMinutes(i)));
+		}
+		ConversationPair small = turn("small", "Short one", day.plusHours(2));
+		store(large.toArray(ConversationPair[]::new));
+		store(small);
+		archive.maintain();
+
+		String segment = index.find("small").orElseThrow().segment();
+		assertThat(index.find("large").orElseThrow().segment()).isEqualTo(segment);
+
+		// Brought back and continued: its block is dead and most of the segment with it
+		assertThat(archive.rehydrate("large")).isTrue();
+		store(turn("large", "Still here", NOW));
+		archive.maintain();
+
+		ArchivedThread moved = index.find("small").orElseThrow();
+		assertThat(moved.segment()).isNotEqualTo(segment).startsWith(day.toLocalDate().toString()).endsWith(".seg");
+		assertThat(moved.offset()).isZero();
+		assertThat(segment(segment)).doesNotExist();
+		assertThat(Files.size(segment(moved.segment()))).isEqualTo(moved.length());
+		assertThat(index.find("large")).isEmpty();
+
+		assertThat(archive.rehydrate("small")).isTrue();
+		assertThat(rows("small")).containsExactly(small);
+	}
+
+	@Test
+	void retentionDeletesOldSegmentsTogetherWithTheirSearchHits() throws Exception {
+		ConversationPair expired = turn("expired", "zebra crossing", daysAgo(60));
+		ConversationPair kept = turn("kept", "zebra stripes", daysAgo(10));
+		store(expired, kept);
+		awaitHits("zebra", 2);
+
+		archive.maintain();
+
+		assertThat(index.find("expired")).isEmpty();
+		assertThat(segment(daysAgo(60).toLocalDate() + ".seg")).doesNotExist();
+		assertThat(archive.rehydrate("expired")).isFalse();
+		assertThat(index.find("kept")).isPresent();
+		assertThat(segment(index.find("kept").orElseThrow().segment())).exists();
+
+		assertThat(hits("zebra")).isEqualTo(1);
+		assertThat(search.search("zebra", null, null, null, null, false, 0, 10).hits())
+			.extracting(SearchHit::threadId).containsExactly("kept");
+	}
+
+	private void store(ConversationPair... turns) {
+		for (ConversationPair turn : turns) {
+			writer.stage(turn);
+		}
+		writer.flush();
+	}
+
+	private List<ConversationPair> rows(String threadId) {
+		return jdbcTemplate.query("SELECT * FROM conversations WHERE thread_id = ? ORDER BY timestamp",
+			new BeanPropertyRowMapper<>(ConversationPair.class), threadId);
+	}
+
+	private int summaryCount(String threadId) {
+		Integer count = jdbcTemplate.queryForObject(
+			"SELECT COUNT(*) FROM thread_summaries WHERE thread_id = ?", Integer.class, threadId);
+		return (count != null) ? count : 0;
+	}
+
+	private Path segment(String name) {
+		return tempDir.resolve("archive").resolve(name);
+	}
+
+	private long hits(String text) throws Exception {
+		return search.search(text, null, null, null, null, false, 0, 10).total();
+	}
+
+	// Indexing runs in the background
+	private void awaitHits(String text, long expected) throws Exception {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (hits(text) != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertThat(hits(text)).isEqualTo(expected);
+	}
+}
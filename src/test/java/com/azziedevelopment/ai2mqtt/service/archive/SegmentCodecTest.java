@@ -0,0 +1,29 @@
+package com.azziedevelopment.ai2mqtt.service.archive;
+
+import com.azziedevelopment.ai2mqtt.model.ConversationPair;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentCodecTest {
+
+	@Test
+	void roundTripsTurnsIncludingNullsAndLongAnswers() throws Exception {
+		ConversationPair full = ConversationPair.builder()
+			.id("a").threadId("t").prompt("Wie warm ist es? 🌡").response("x".repeat(200_000))
+			.status("COMPLETED").timestamp(LocalDateTime.of(2026, 1, 2, 3, 4, 5, 6_000))
+			.maxTokens(500).temperature(0.7).cached(true)
+			.build();
+		ConversationPair sparse = ConversationPair.builder()
+			.id("b").threadId("t").prompt("Hi").status("FAILED")
+			.build();
+
+		byte[] block = SegmentCodec.encode(List.of(full, sparse));
+
+		assertThat(block.length).isLessThan(10_000);
+		assertThat(SegmentCodec.decode(block)).containsExactly(full, sparse);
+	}
+}
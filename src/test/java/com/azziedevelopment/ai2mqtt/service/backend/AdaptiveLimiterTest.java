@@ -0,0 +1,88 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives the limiter with a modelled backend that has {@code capacity} slots: beyond that many concurrent
+ * requests the extra ones queue, so latency grows in proportion (like {@code StubCompletionServer}).
+ */
+class AdaptiveLimiterTest {
+
+	private static final long SERVICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Test
+	void settlesJustAboveTheCapacityOfAQueueingBackend() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 64, 1.5, 0.9);
+
+		saturate(limiter, 8, SERVICE_NANOS, 500);
+
+		// tolerance 1.5 lets latency rise by half: about 12 in flight, plus one queued
+		assertThat(limiter.limit()).isBetween(8, 16);
+	}
+
+	@Test
+	void growsToTheMaximumWhileLatencyStaysFlat() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 64, 1.5, 0.9);
+
+		saturate(limiter, 1_000, SERVICE_NANOS, 200);
+
+		assertThat(limiter.limit()).isEqualTo(64);
+	}
+
+	@Test
+	void keepsItsLimitWhenTheModelGetsSlower() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 64, 1.5, 0.9);
+		saturate(limiter, 8, SERVICE_NANOS, 300);
+		int before = limiter.limit();
+
+		// Three times the latency at every load level; the periodic probe re-measures the baseline
+		saturate(limiter, 8, 3 * SERVICE_NANOS, 2_000);
+
+		assertThat(limiter.limit()).isBetween(before - 2, before + 2);
+	}
+
+	@Test
+	void backsOffMultiplicativelyOnOverload() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(20, 1, 64, 1.5, 0.9);
+
+		assertThat(limiter.tryAcquire()).isEqualTo(1);
+		limiter.onOverload();
+
+		assertThat(limiter.limit()).isEqualTo(18);
+		assertThat(limiter.inFlight()).isZero();
+	}
+
+	@Test
+	void refusesRequestsAboveTheLimit() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 64, 1.5, 0.9);
+
+		assertThat(limiter.tryAcquire()).isEqualTo(1);
+		assertThat(limiter.tryAcquire()).isEqualTo(2);
+		assertThat(limiter.tryAcquire()).isZero();
+
+		limiter.release();
+		assertThat(limiter.tryAcquire()).isEqualTo(2);
+	}
+
+	/**
+	 * Each round fills every slot the limiter allows, then completes them all with the latency the backend
+	 * shows at that load.
+	 */
+	private static void saturate(AdaptiveLimiter limiter, int capacity, long serviceNanos, int rounds) {
+		for (int round = 0; round < rounds; round++) {
+			List<Integer> started = new ArrayList<>();
+			int inFlight;
+			while ((inFlight = limiter.tryAcquire()) > 0) {
+				started.add(inFlight);
+			}
+			long latency = (long) (serviceNanos * Math.max(1.0, (double) started.size() / capacity));
+			started.forEach(inFlightAtStart -> limiter.onSuccess(latency, inFlightAtStart));
+		}
+	}
+}
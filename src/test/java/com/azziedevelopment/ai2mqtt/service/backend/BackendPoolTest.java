@@ -0,0 +1,172 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import com.azziedevelopment.ai2mqtt.config.HttpClientProperties;
+import com.azziedevelopment.ai2mqtt.config.RoutingProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the pool against local stub servers standing in for OpenAI-compatible backends.
+ */
+class BackendPoolTest {
+
+	private final List<HttpServer> servers = new ArrayList<>();
+
+	@AfterEach
+	void stopServers() {
+		servers.forEach(server -> server.stop(0));
+	}
+
+	@Test
+	void failsOverWhenPrimaryReturnsServerError() throws IOException {
+		StubBackend broken = stub(503, "overloaded");
+		StubBackend healthy = stub(200, "answer from b");
+		BackendPool pool = pool(5, broken, healthy);
+
+		assertThat(complete(pool)).isEqualTo("answer from b");
+		assertThat(broken.calls()).isEqualTo(1);
+		assertThat(healthy.calls()).isEqualTo(1);
+	}
+
+	@Test
+	void opensCircuitAfterRepeatedFailures() throws IOException {
+		StubBackend broken = stub(500, "boom");
+		StubBackend healthy = stub(200, "ok");
+		BackendPool pool = pool(2, broken, healthy);
+
+		complete(pool);
+		complete(pool);
+		assertThat(broken.calls()).isEqualTo(2);
+
+		// Circuit is open now, so the broken backend is skipped entirely
+		complete(pool);
+		complete(pool);
+		assertThat(broken.calls()).isEqualTo(2);
+		assertThat(healthy.calls()).isEqualTo(4);
+	}
+
+	@Test
+	void doesNotFailOverOnClientErrors() throws IOException {
+		StubBackend rejecting = stub(400, "bad request");
+		StubBackend healthy = stub(200, "ok");
+		BackendPool pool = pool(5, rejecting, healthy);
+
+		assertThatThrownBy(() -> complete(pool)).isInstanceOf(RestClientResponseException.class);
+		assertThat(healthy.calls()).isZero();
+	}
+
+	@Test
+	void failsWhenEveryBackendIsDown() throws IOException {
+		BackendPool pool = pool(5, stub(502, "a"), stub(503, "b"));
+
+		assertThatThrownBy(() -> complete(pool)).isInstanceOf(RestClientResponseException.class);
+	}
+
+	@Test
+	void retriesOnceTheProviderSaysSoInRetryAfter() throws IOException {
+		StubBackend limited = stub(new Reply(429, "slow down", "1"), new Reply(200, "ok", null));
+		BackendPool pool = pool(5, new RoutingProperties.Retry(3, Duration.ofMillis(10), Duration.ofSeconds(5)), limited);
+
+		long start = System.nanoTime();
+		assertThat(complete(pool)).isEqualTo("ok");
+
+		assertThat(limited.calls()).isEqualTo(2);
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(900));
+	}
+
+	@Test
+	void doesNotRetryPastTheDeadline() throws IOException {
+		StubBackend down = stub(503, "overloaded");
+		BackendPool pool = pool(5, new RoutingProperties.Retry(3, Duration.ofSeconds(1), Duration.ofSeconds(5)), down);
+
+		Instant deadline = Instant.now().plusMillis(200);
+		assertThatThrownBy(() -> pool.execute(0, deadline, BackendPoolTest::send))
+			.isInstanceOf(RestClientResponseException.class);
+		assertThat(down.calls()).isEqualTo(1);
+	}
+
+	private static String complete(BackendPool pool) {
+		return pool.execute(BackendPoolTest::send);
+	}
+
+	private static String send(Backend backend) {
+		return backend.client().forMaxTokens(10).post()
+			.uri("/chat/completions")
+			.body("{}")
+			.retrieve()
+			.body(String.class);
+	}
+
+	private BackendPool pool(int failureThreshold, StubBackend... stubs) {
+		return pool(failureThreshold, null, stubs);
+	}
+
+	private BackendPool pool(int failureThreshold, RoutingProperties.Retry retry, StubBackend... stubs) {
+		List<RoutingProperties.BackendDefinition> definitions = new ArrayList<>();
+		for (int i = 0; i < stubs.length; i++) {
+			definitions.add(new RoutingProperties.BackendDefinition(
+				"stub-" + i, stubs[i].baseUrl(), "key", "model", 1, "default", 0, 0));
+		}
+		// Least-outstanding breaks ties by list order, so the first stub is always the primary
+		RoutingProperties routing = new RoutingProperties(RoutingProperties.Strategy.LEAST_OUTSTANDING,
+			failureThreshold, Duration.ofMinutes(1), Duration.ZERO, "/models", definitions, null, retry);
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		AIHttpClientFactory clientFactory = new AIHttpClientFactory(new HttpClientProperties(Map.of()), registry);
+		return new BackendPool(routing, clientFactory, registry, "http://unused", "key", "model", "default", 0, 0);
+	}
+
+	private StubBackend stub(int status, String body) throws IOException {
+		return stub(new Reply(status, body, null));
+	}
+
+	/**
+	 * Answers with {@code replies} in order, then keeps repeating the last one.
+	 */
+	private StubBackend stub(Reply... replies) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		AtomicInteger calls = new AtomicInteger();
+		server.createContext("/chat/completions", exchange -> {
+			Reply reply = replies[Math.min(calls.getAndIncrement(), replies.length - 1)];
+			exchange.getRequestBody().readAllBytes();
+			if (reply.retryAfter() != null) {
+				exchange.getResponseHeaders().set("Retry-After", reply.retryAfter());
+			}
+			byte[] bytes = reply.body().getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(reply.status(), bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		server.start();
+		servers.add(server);
+		return new StubBackend("http://127.0.0.1:" + server.getAddress().getPort(), calls);
+	}
+
+	private record Reply(int status, String body, String retryAfter) {
+	}
+
+	private record StubBackend(String baseUrl, AtomicInteger calls) {
+
+		int calls() {
+			return calls.get();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.azziedevelopment.ai2mqtt.service.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProviderQuotaTest {
+
+	@Test
+	void allowsAMinutesWorthOfRequestsThenAsksToWait() {
+		ProviderQuota quota = new ProviderQuota(3, 0);
+
+		assertThat(quota.tryAcquire(0)).isZero();
+		assertThat(quota.tryAcquire(0)).isZero();
+		assertThat(quota.tryAcquire(0)).isZero();
+
+		// One request refills every 20 seconds
+		assertThat(quota.tryAcquire(0)).isBetween(TimeUnit.SECONDS.toNanos(19), TimeUnit.SECONDS.toNanos(20));
+	}
+
+	@Test
+	void chargesTheEstimatedTokens() {
+		ProviderQuota quota = new ProviderQuota(0, 1_000);
+
+		assertThat(quota.tryAcquire(800)).isZero();
+		// 600 missing at 1000 per minute: about 36 seconds, and nothing is taken meanwhile
+		assertThat(quota.tryAcquire(800)).isBetween(TimeUnit.SECONDS.toNanos(35), TimeUnit.SECONDS.toNanos(36));
+		assertThat(quota.tryAcquire(200)).isZero();
+	}
+
+	@Test
+	void refundGivesBackAnUnsentCall() {
+		ProviderQuota quota = new ProviderQuota(1, 1_000);
+
+		assertThat(quota.tryAcquire(800)).isZero();
+		quota.refund(800);
+
+		assertThat(quota.tryAcquire(1_000)).isZero();
+	}
+
+	@Test
+	void holdsEverythingBackDuringRetryAfter() {
+		ProviderQuota quota = new ProviderQuota(0, 0);
+
+		quota.pause(TimeUnit.SECONDS.toNanos(30));
+
+		assertThat(quota.tryAcquire(1)).isGreaterThan(TimeUnit.SECONDS.toNanos(29));
+	}
+}
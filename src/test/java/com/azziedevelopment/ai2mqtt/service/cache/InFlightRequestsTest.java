@@ -0,0 +1,98 @@
+package com.azziedevelopment.ai2mqtt.service.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InFlightRequestsTest {
+
+	private final ResponseCache.CacheKey key = new ResponseCache.CacheKey("ctx", "summarize today's weather");
+
+	@Test
+	void concurrentIdenticalRequestsShareOneCall() throws Exception {
+		InFlightRequests inFlight = new InFlightRequests(new SimpleMeterRegistry(), true, Duration.ofMinutes(5));
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<InFlightRequests.Outcome>> results = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				results.add(pool.submit(() -> inFlight.execute(key, () -> {
+					calls.incrementAndGet();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					return "Sunny";
+				})));
+			}
+			Thread.sleep(200);
+			release.countDown();
+
+			int shared = 0;
+			for (Future<InFlightRequests.Outcome> result : results) {
+				InFlightRequests.Outcome outcome = result.get(5, TimeUnit.SECONDS);
+				assertThat(outcome.response()).isEqualTo("Sunny");
+				if (outcome.shared()) shared++;
+			}
+			assertThat(calls.get()).isEqualTo(1);
+			assertThat(shared).isEqualTo(9);
+		}
+
+		// Finished flights are forgotten; the next request calls again
+		inFlight.execute(key, () -> "Cloudy");
+		assertThat(inFlight.execute(key, () -> "Rain").response()).isEqualTo("Rain");
+	}
+
+	@Test
+	void followerCallsItselfOnceItsDeadlineIsNear() throws Exception {
+		InFlightRequests inFlight = new InFlightRequests(new SimpleMeterRegistry(), true, Duration.ofMinutes(5));
+		CountDownLatch leaderStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<InFlightRequests.Outcome> leader = pool.submit(() -> inFlight.execute(key, () -> {
+				leaderStarted.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return "Sunny";
+			}));
+			leaderStarted.await();
+
+			InFlightRequests.Outcome follower =
+				inFlight.execute(key, Instant.now().plusMillis(100), () -> "Cloudy");
+
+			assertThat(follower.response()).isEqualTo("Cloudy");
+			assertThat(follower.shared()).isFalse();
+			release.countDown();
+			assertThat(leader.get(5, TimeUnit.SECONDS).response()).isEqualTo("Sunny");
+		}
+	}
+
+	@Test
+	void failureIsNotRemembered() {
+		InFlightRequests inFlight = new InFlightRequests(new SimpleMeterRegistry(), true, Duration.ofMinutes(5));
+
+		assertThatThrownBy(() -> inFlight.execute(key, () -> {
+			throw new IllegalStateException("backend down");
+		})).hasMessage("backend down");
+		assertThat(inFlight.execute(key, () -> "Sunny").shared()).isFalse();
+	}
+}
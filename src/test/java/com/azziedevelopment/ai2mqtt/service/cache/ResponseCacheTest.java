@@ -0,0 +1,78 @@
+package com.azziedevelopment.ai2mqtt.service.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheTest {
+
+	private static List<Map<String, String>> request(String history, String prompt) {
+		return List.of(
+			Map.of("role", "system", "content", "You are a helpful assistant."),
+			Map.of("role", "assistant", "content", history),
+			Map.of("role", "user", "content", prompt));
+	}
+
+	@Test
+	void exactModeIgnoresCaseAndWhitespaceButNotContext() {
+		ResponseCache cache = new ResponseCache(new SimpleMeterRegistry(), true, Duration.ofMinutes(1), 10, 1.0);
+		cache.put(cache.keyFor("m", request("", "Summarize today's weather"), 0.7, 500), "Sunny");
+
+		assertThat(cache.lookup(cache.keyFor("m", request("", "  summarize   TODAY'S weather "), 0.7, 500))).contains("Sunny");
+		assertThat(cache.lookup(cache.keyFor("m", request("Earlier answer", "Summarize today's weather"), 0.7, 500))).isEmpty();
+		assertThat(cache.lookup(cache.keyFor("m", request("", "Summarize today's weather"), 0.2, 500))).isEmpty();
+		assertThat(cache.lookup(cache.keyFor("other", request("", "Summarize today's weather"), 0.7, 500))).isEmpty();
+	}
+
+	@Test
+	void similarModeMatchesRewordedPrompts() {
+		ResponseCache cache = new ResponseCache(new SimpleMeterRegistry(), true, Duration.ofMinutes(1), 10, 0.5);
+		cache.put(cache.keyFor("m", request("", "Summarize today's weather forecast"), 0.7, 500), "Sunny");
+
+		assertThat(cache.lookup(cache.keyFor("m", request("", "Summarise todays weather forecast"), 0.7, 500))).contains("Sunny");
+		assertThat(cache.lookup(cache.keyFor("m", request("", "Turn off the kitchen lights"), 0.7, 500))).isEmpty();
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedAndExpired() throws Exception {
+		ResponseCache cache = new ResponseCache(new SimpleMeterRegistry(), true, Duration.ofMillis(50), 2, 1.0);
+		ResponseCache.CacheKey a = cache.keyFor("m", request("", "a"), 0.7, 500);
+		ResponseCache.CacheKey b = cache.keyFor("m", request("", "b"), 0.7, 500);
+		ResponseCache.CacheKey c = cache.keyFor("m", request("", "c"), 0.7, 500);
+
+		cache.put(a, "A");
+		cache.put(b, "B");
+		cache.lookup(a);
+		cache.put(c, "C");
+		assertThat(cache.lookup(b)).isEmpty();
+		assertThat(cache.lookup(a)).contains("A");
+
+		Thread.sleep(100);
+		assertThat(cache.lookup(c)).isEmpty();
+	}
+
+	@Test
+	void similarLookupLeavesCandidatesOrderAloneAndDropsExpiredOnes() throws Exception {
+		ResponseCache cache = new ResponseCache(new SimpleMeterRegistry(), true, Duration.ofMillis(50), 2, 0.5);
+		ResponseCache.CacheKey weather = cache.keyFor("m", request("", "Summarize today's weather forecast"), 0.7, 500);
+		ResponseCache.CacheKey lights = cache.keyFor("m", request("Earlier answer", "Turn off the kitchen lights"), 0.7, 500);
+		ResponseCache.CacheKey news = cache.keyFor("m", request("", "Read me the news headlines"), 0.7, 500);
+
+		cache.put(weather, "Sunny");
+		cache.put(lights, "Done");
+		// Scans the weather entry without a match: it must stay the least recently used one
+		assertThat(cache.lookup(cache.keyFor("m", request("", "Play some jazz music"), 0.7, 500))).isEmpty();
+		cache.put(news, "Nothing new");
+		assertThat(cache.lookup(weather)).isEmpty();
+		assertThat(cache.lookup(lights)).contains("Done");
+
+		Thread.sleep(100);
+		assertThat(cache.lookup(cache.keyFor("m", request("", "Read me the headlines"), 0.7, 500))).isEmpty();
+		assertThat(cache.size()).isEqualTo(1);
+	}
+}
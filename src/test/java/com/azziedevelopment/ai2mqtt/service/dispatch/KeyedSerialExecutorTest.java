@@ -0,0 +1,81 @@
+package com.azziedevelopment.ai2mqtt.service.dispatch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyedSerialExecutorTest {
+
+	@Test
+	void sameKeyRunsInSubmissionOrder() throws Exception {
+		try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+			KeyedSerialExecutor executor = new KeyedSerialExecutor(pool);
+			List<Integer> seen = new CopyOnWriteArrayList<>();
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger maxRunning = new AtomicInteger();
+			CountDownLatch done = new CountDownLatch(200);
+
+			for (int i = 0; i < 200; i++) {
+				int n = i;
+				executor.execute("kitchen", () -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					seen.add(n);
+					running.decrementAndGet();
+					done.countDown();
+				});
+			}
+
+			assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(maxRunning.get()).isEqualTo(1);
+			assertThat(seen).isSorted().hasSize(200);
+		}
+	}
+
+	@Test
+	void differentKeysRunInParallel() throws Exception {
+		try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+			KeyedSerialExecutor executor = new KeyedSerialExecutor(pool);
+			CountDownLatch bothStarted = new CountDownLatch(2);
+			CountDownLatch release = new CountDownLatch(1);
+
+			for (String key : List.of("kitchen", "office")) {
+				executor.execute(key, () -> {
+					bothStarted.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+
+			// Would time out if "office" were stuck behind "kitchen"
+			assertThat(bothStarted.await(5, TimeUnit.SECONDS)).isTrue();
+			release.countDown();
+		}
+	}
+
+	@Test
+	void failingTaskDoesNotBlockItsLane() throws Exception {
+		try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+			KeyedSerialExecutor executor = new KeyedSerialExecutor(pool);
+			CountDownLatch after = new CountDownLatch(1);
+
+			executor.execute("kitchen", () -> {
+				throw new IllegalStateException("boom");
+			});
+			executor.execute("kitchen", after::countDown);
+
+			assertThat(after.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(executor.activeKeys()).isLessThanOrEqualTo(1);
+		}
+	}
+}
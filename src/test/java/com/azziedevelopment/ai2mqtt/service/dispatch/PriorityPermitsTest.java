@@ -0,0 +1,46 @@
+package com.azziedevelopment.ai2mqtt.service.dispatch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PriorityPermitsTest {
+
+	@Test
+	void freedPermitGoesToHighestPriorityThenArrivalOrder() throws Exception {
+		PriorityPermits permits = new PriorityPermits(1);
+		permits.acquire(5);
+
+		List<String> order = new CopyOnWriteArrayList<>();
+		CountDownLatch done = new CountDownLatch(4);
+		try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<String> arrivals = List.of("bulk-1:0", "normal:5", "bulk-2:0", "voice:9");
+			for (int i = 0; i < arrivals.size(); i++) {
+				String name = arrivals.get(i);
+				int priority = Integer.parseInt(name.substring(name.indexOf(':') + 1));
+				pool.submit(() -> {
+					permits.acquire(priority);
+					order.add(name);
+					permits.release();
+					done.countDown();
+					return null;
+				});
+				// Wait until it is queued, so arrival order is deterministic
+				while (permits.waiting() < i + 1) {
+					Thread.onSpinWait();
+				}
+			}
+			permits.release();
+			assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		}
+
+		assertThat(order).containsExactly("voice:9", "normal:5", "bulk-1:0", "bulk-2:0");
+	}
+}